@@ -1,22 +1,45 @@
 package com.marketplace;
 
 import com.marketplace.model.Product;
-import com.marketplace.repository.FileProductRepository;
+import com.marketplace.repository.CheckpointProductRepository;
+import com.marketplace.replication.ReplicationLeader;
 import com.marketplace.repository.ProductRepository;
 import com.marketplace.service.AuditService;
 import com.marketplace.service.AuthService;
 import com.marketplace.service.ProductService;
+import com.marketplace.store.DiskProductStore;
+import com.marketplace.store.InMemoryProductStore;
+import com.marketplace.store.ProductStore;
+import com.marketplace.store.TieredProductStore;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
+/**
+ * Запуск: без аргументов - обычный режим;
+ * {@code --leader-port=7070} - дополнительно раздавать изменения репликам (см. FollowerApp);
+ * {@code --hot-capacity=10000} - держать в куче только столько горячих товаров, остальное - в data/cold.dat.
+ * Индексы (id -> место в файле, подсказки по названию, бренду и категории) при этом всё равно в куче,
+ * около 350 байт на товар независимо от hot-capacity.
+ */
 public class App {
     public static void main(String[] args) {
         AuditService auditService = new AuditService();
         AuthService auth = new AuthService(auditService);
-        ProductRepository repository = new FileProductRepository("data/products.dat");
-        ProductService productService = new ProductService(repository, auditService);
+        // чекпойнты в data/checkpoints; старый data/products.dat подхватывается один раз для миграции
+        ProductRepository repository = new CheckpointProductRepository("data/checkpoints", "data/products.dat");
+        ProductStore store = new InMemoryProductStore();
+        DiskProductStore coldStore = null;
+        for (String arg : args) {
+            if (arg.startsWith("--hot-capacity=")) {
+                int hotCapacity = Integer.parseInt(arg.substring("--hot-capacity=".length()));
+                coldStore = new DiskProductStore("data/cold.dat");
+                store = new TieredProductStore(hotCapacity, coldStore);
+            }
+        }
+        ProductService productService = new ProductService(repository, auditService, store);
 
         auth.login("admin", "admin123");
         productService.setCurrentUser(auth.getCurrentUser().orElse("unknown"));
@@ -30,12 +53,42 @@ public class App {
         //productService.listAll().forEach(System.out::println);
 
 
+        ReplicationLeader leader = null;
+        for (String arg : args) {
+            if (arg.startsWith("--leader-port=")) {
+                try {
+                    leader = new ReplicationLeader(productService, Integer.parseInt(arg.substring("--leader-port=".length())));
+                    leader.start();
+                } catch (IOException | NumberFormatException e) {
+                    System.err.println("Не удалось запустить лидера репликации: " + e.getMessage());
+                    leader = null;
+                }
+            }
+        }
+
         // вызов консольного меню
-        ConsoleMenu menu = new ConsoleMenu(productService, auth);
+        ReplicationLeader replication = leader;
+        ConsoleMenu menu = new ConsoleMenu(productService, auth, false,
+                replication != null ? replication::getStats : null);
         menu.start();
 
 
         auth.logout();
+        if (leader != null) {
+            try {
+                leader.close();
+            } catch (IOException e) {
+                System.err.println("Ошибка остановки лидера репликации: " + e.getMessage());
+            }
+        }
+        // после лидера: его сессии ещё могут читать снимок из холодного уровня
+        if (coldStore != null) {
+            try {
+                coldStore.close();
+            } catch (IOException e) {
+                System.err.println("Ошибка закрытия холодного хранилища: " + e.getMessage());
+            }
+        }
 
     }
 
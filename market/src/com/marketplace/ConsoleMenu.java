@@ -7,33 +7,58 @@ import com.marketplace.service.ProductService;
 import java.util.Optional;
 import java.util.Scanner;
 import java.util.UUID;
+import java.util.function.Supplier;
 
 public class ConsoleMenu {
 
     private final ProductService productService;
     private final AuthService authService;
     private final Scanner scanner = new Scanner(System.in);
+    private final boolean readOnly;
+    private final Supplier<String> replicationStats;
 
     public ConsoleMenu(ProductService productService, AuthService authService) {
+        this(productService, authService, false, null);
+    }
+
+    /**
+     * @param readOnly         запретить add/update/delete - для реплики
+     * @param replicationStats строка метрик репликации для команды stats (может быть null)
+     */
+    public ConsoleMenu(ProductService productService, AuthService authService,
+                       boolean readOnly, Supplier<String> replicationStats) {
         this.productService = productService;
         this.authService = authService;
+        this.readOnly = readOnly;
+        this.replicationStats = replicationStats;
     }
 
     public void start() {
         System.out.println("== Marketplace Console ==");
 
         while (true) {
-            System.out.print("Введите команду (add, update, delete, list, search, filter, stats, exit): ");
+            System.out.print("Введите команду (add, update, delete, list, search, suggest, filter, stats, exit): ");
             String command = scanner.nextLine().trim().toLowerCase();
 
+            if (readOnly && (command.equals("add") || command.equals("update") || command.equals("delete"))) {
+                System.out.println("Реплика только для чтения: изменения делаются на лидере.");
+                continue;
+            }
+
             switch (command) {
                 case "add" -> addProduct();
                 case "update" -> updateProduct();
                 case "delete" -> deleteProduct();
                 case "list" -> listAll();
                 case "search" -> searchProducts();
+                case "suggest" -> suggest();
                 case "filter" -> filterProducts();
-                case "stats" -> productService.printStats();
+                case "stats" -> {
+                    productService.printStats();
+                    if (replicationStats != null) {
+                        System.out.println("Репликация: " + replicationStats.get());
+                    }
+                }
                 case "exit" -> {
                     System.out.println("Выход...");
                     return;
@@ -103,13 +128,14 @@ public class ConsoleMenu {
     private void searchProducts() {
         String field;
         while (true) {
-            System.out.print("Поиск по полю (name/brand/category/price): ");
+            System.out.print("Поиск по полю (name/brand/category/price/fuzzy): ");
             field = scanner.nextLine().trim().toLowerCase();
 
-            if (field.equals("name") || field.equals("brand") || field.equals("category") || field.equals("price")) {
+            if (field.equals("name") || field.equals("brand") || field.equals("category") || field.equals("price")
+                    || field.equals("fuzzy")) {
                 break;
             } else {
-                System.out.println("Ошибка: допустимые значения — name, brand, category или price.");
+                System.out.println("Ошибка: допустимые значения — name, brand, category, price или fuzzy.");
             }
         }
 
@@ -133,6 +159,11 @@ public class ConsoleMenu {
                 start = System.nanoTime();
                 yield productService.searchByCategory(value);
             }
+            case "fuzzy" -> {
+                // по всем полям сразу; число допустимых опечаток растёт с длиной запроса
+                start = System.nanoTime();
+                yield productService.fuzzySearch(value, ProductService.maxEditsFor(value));
+            }
             case "price" -> {
                 try {
                     System.out.print("Мин. цена: ");
@@ -153,7 +184,30 @@ public class ConsoleMenu {
             long duration = System.nanoTime() - start;
             results.forEach(System.out::println);
             System.out.printf("Найдено: %d, время: %.2f мс%n", results.size(), duration / 1_000_000.0);
+
+            if (results.isEmpty() && value != null) {
+                var similar = productService.suggestFuzzy(value, ProductService.maxEditsFor(value), 5);
+                if (!similar.isEmpty()) {
+                    System.out.println("Возможно, вы имели в виду:");
+                    similar.forEach(s -> System.out.println("  " + s));
+                }
+            }
+        }
+    }
+
+    private void suggest() {
+        System.out.print("Начало названия, бренда или категории: ");
+        String prefix = scanner.nextLine();
+
+        long start = System.nanoTime();
+        var suggestions = productService.suggest(prefix, 10);
+        if (suggestions.isEmpty()) {
+            suggestions = productService.suggestFuzzy(prefix, ProductService.maxEditsFor(prefix), 10);
         }
+        long duration = System.nanoTime() - start;
+
+        suggestions.forEach(System.out::println);
+        System.out.printf("Подсказок: %d, время: %.3f мс%n", suggestions.size(), duration / 1_000_000.0);
     }
 
 
@@ -0,0 +1,38 @@
+package com.marketplace;
+
+import com.marketplace.replication.ReplicationFollower;
+import com.marketplace.repository.InMemoryProductRepository;
+import com.marketplace.service.AuditService;
+import com.marketplace.service.AuthService;
+import com.marketplace.service.ProductService;
+
+import java.io.IOException;
+
+/**
+ * Реплика каталога только для чтения.
+ * Запуск: {@code FollowerApp [host] [port]}, по умолчанию localhost 7070;
+ * лидер запускается как {@code App --leader-port=7070}.
+ */
+public class FollowerApp {
+    public static void main(String[] args) throws IOException {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 7070;
+
+        AuditService auditService = new AuditService();
+        AuthService auth = new AuthService(auditService);
+        // каталог приходит от лидера, своё хранилище не нужно
+        ProductService productService = new ProductService(new InMemoryProductRepository(), auditService);
+
+        auth.login("user", "user123");
+        productService.setCurrentUser(auth.getCurrentUser().orElse("unknown"));
+
+        ReplicationFollower follower = new ReplicationFollower(productService, host, port);
+        follower.start();
+
+        ConsoleMenu menu = new ConsoleMenu(productService, auth, true, follower::getStats);
+        menu.start();
+
+        follower.close();
+        auth.logout();
+    }
+}
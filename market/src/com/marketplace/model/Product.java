@@ -1,5 +1,9 @@
 package com.marketplace.model;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serial;
 import java.io.Serializable;
 import java.time.Instant;
@@ -14,12 +18,26 @@ public class Product implements Serializable {
     @Serial
     private static final long serialVersionUID = 1L;
 
-    private final UUID id;
+    // формат файла прежний: category и brand пишутся строками, записи словаря живут только в процессе
+    @Serial
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("id", UUID.class),
+            new ObjectStreamField("name", String.class),
+            new ObjectStreamField("category", String.class),
+            new ObjectStreamField("brand", String.class),
+            new ObjectStreamField("price", double.class),
+            new ObjectStreamField("createdAt", Instant.class),
+            new ObjectStreamField("updatedAt", Instant.class)
+    };
+
+    // id и createdAt не final только из-за readObject; сеттеров у них нет
+    private UUID id;
     private String name;
-    private String category;
-    private String brand;
+    // одна ссылка на запись словаря вместо строки и id: общая строка и id без учёта регистра в ней
+    private transient TermDictionary.Entry category;
+    private transient TermDictionary.Entry brand;
     private double price;
-    private final Instant createdAt;
+    private Instant createdAt;
     private Instant updatedAt;
 
     public Product(String name, String category, String brand, double price) {
@@ -30,8 +48,8 @@ public class Product implements Serializable {
                    Instant createdAt, Instant updatedAt) {
         this.id = id;
         this.name = name != null ? name : "";
-        this.category = category != null ? category : "";
-        this.brand = brand != null ? brand : "";
+        this.category = TermDictionary.CATEGORIES.intern(category != null ? category : "");
+        this.brand = TermDictionary.BRANDS.intern(brand != null ? brand : "");
         this.price = price;
         this.createdAt = createdAt != null ? createdAt : Instant.now();
         this.updatedAt = updatedAt != null ? updatedAt : this.createdAt;
@@ -39,8 +57,10 @@ public class Product implements Serializable {
 
     public UUID getId() { return id; }
     public String getName() { return name; }
-    public String getCategory() { return category; }
-    public String getBrand() { return brand; }
+    public String getCategory() { return category.getValue(); }
+    public String getBrand() { return brand.getValue(); }
+    public int getCategoryId() { return category.getId(); }
+    public int getBrandId() { return brand.getId(); }
     public double getPrice() { return price; }
     public Instant getCreatedAt() { return createdAt; }
     public Instant getUpdatedAt() { return updatedAt; }
@@ -51,12 +71,16 @@ public class Product implements Serializable {
     }
 
     public void setCategory(String category) {
-        this.category = category != null ? category : this.category;
+        if (category != null) {
+            this.category = TermDictionary.CATEGORIES.intern(category);
+        }
         touch();
     }
 
     public void setBrand(String brand) {
-        this.brand = brand != null ? brand : this.brand;
+        if (brand != null) {
+            this.brand = TermDictionary.BRANDS.intern(brand);
+        }
         touch();
     }
 
@@ -65,6 +89,33 @@ public class Product implements Serializable {
         touch();
     }
 
+    @Serial
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("id", id);
+        fields.put("name", name);
+        fields.put("category", category.getValue());
+        fields.put("brand", brand.getValue());
+        fields.put("price", price);
+        fields.put("createdAt", createdAt);
+        fields.put("updatedAt", updatedAt);
+        out.writeFields();
+    }
+
+    @Serial
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        id = (UUID) fields.get("id", null);
+        name = (String) fields.get("name", "");
+        String categoryValue = (String) fields.get("category", null);
+        String brandValue = (String) fields.get("brand", null);
+        category = TermDictionary.CATEGORIES.intern(categoryValue != null ? categoryValue : "");
+        brand = TermDictionary.BRANDS.intern(brandValue != null ? brandValue : "");
+        price = fields.get("price", 0.0);
+        createdAt = (Instant) fields.get("createdAt", null);
+        updatedAt = (Instant) fields.get("updatedAt", null);
+    }
+
     private void touch() {
         this.updatedAt = Instant.now();
     }
@@ -86,7 +137,7 @@ public class Product implements Serializable {
     @Override
     public String toString() {
         return String.format("Product{id=%s, name='%s', category='%s', brand='%s', price=%.2f}",
-                id, name, category, brand, price);
+                id, name, getCategory(), getBrand(), price);
     }
 }
 
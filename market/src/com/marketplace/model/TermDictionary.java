@@ -0,0 +1,81 @@
+package com.marketplace.model;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Словарь значений с малым числом вариантов (категории, бренды).
+ * <p>
+ * Каждому точному написанию соответствует один общий экземпляр String,
+ * а всем написаниям, равным без учёта регистра, - один целочисленный id.
+ * Товар хранит одну ссылку на {@link Entry}, поэтому сравнение без учёта регистра
+ * сводится к сравнению int. Словарь только растёт: вариантов сотни, не миллионы.
+ */
+public final class TermDictionary {
+
+    public static final TermDictionary CATEGORIES = new TermDictionary();
+    public static final TermDictionary BRANDS = new TermDictionary();
+
+    public static final int UNKNOWN = -1;
+
+    private final Map<String, Entry> byValue = new ConcurrentHashMap<>();
+    private final Map<String, Integer> byFolded = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+
+    private TermDictionary() {
+    }
+
+    /**
+     * Регистрирует значение при создании или изменении товара.
+     */
+    public Entry intern(String value) {
+        Entry entry = byValue.get(value);
+        if (entry != null) {
+            return entry;
+        }
+        return byValue.computeIfAbsent(value, v ->
+                new Entry(v, byFolded.computeIfAbsent(fold(v), k -> nextId.getAndIncrement())));
+    }
+
+    /**
+     * Id значения для запроса; ничего не добавляет в словарь.
+     *
+     * @return id или {@link #UNKNOWN}, если такого значения нет ни у одного товара
+     */
+    public int find(String value) {
+        if (value == null) {
+            return UNKNOWN;
+        }
+        Entry entry = byValue.get(value);
+        if (entry != null) {
+            return entry.id;
+        }
+        return byFolded.getOrDefault(fold(value), UNKNOWN);
+    }
+
+    public int size() {
+        return byFolded.size();
+    }
+
+    // посимвольно, как equalsIgnoreCase: сначала в верхний регистр, потом в нижний.
+    // toLowerCase(Locale.ROOT) давал бы другие классы: "İ" -> "i̇" (два символа), "ς" != "σ"
+    private static String fold(String value) {
+        StringBuilder folded = new StringBuilder(value.length());
+        value.codePoints().forEach(cp -> folded.appendCodePoint(Character.toLowerCase(Character.toUpperCase(cp))));
+        return folded.toString();
+    }
+
+    public static final class Entry {
+        private final String value;
+        private final int id;
+
+        private Entry(String value, int id) {
+            this.value = value;
+            this.id = id;
+        }
+
+        public String getValue() { return value; }
+        public int getId() { return id; }
+    }
+}
@@ -0,0 +1,203 @@
+package com.marketplace.replication;
+
+import com.marketplace.service.ProductService;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.Objects;
+
+import static com.marketplace.replication.ReplicationProtocol.*;
+
+/**
+ * Реплика только для чтения: получает поток изменений от {@link ReplicationLeader}
+ * и применяет его к своему ProductService. При обрыве переподключается и сообщает
+ * лидеру последний применённый seq - тот решает, дозалить журнал или прислать снимок.
+ */
+public class ReplicationFollower implements Closeable {
+
+    private static final long RECONNECT_MILLIS = 1000;
+
+    private final ProductService service;
+    private final String host;
+    private final int port;
+
+    private volatile boolean running;
+    private volatile Socket socket;
+    private Thread thread;
+
+    // epoch и appliedSeq меняются вместе, только когда состояние каталога им соответствует
+    private volatile long epoch = 0;
+    private volatile long appliedSeq = 0;
+    private volatile long leaderSeq = 0;
+    private volatile long lagMillis = 0;
+    private volatile boolean connected;
+    private volatile long snapshotsLoaded = 0;
+    private volatile long reconnects = 0;
+
+    public ReplicationFollower(ProductService service, String host, int port) {
+        this.service = Objects.requireNonNull(service, "service must not be null");
+        this.host = host;
+        this.port = port;
+    }
+
+    public void start() {
+        running = true;
+        thread = new Thread(this::run, "replication-follower");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run() {
+        while (running) {
+            try (Socket s = new Socket(host, port)) {
+                socket = s;
+                s.setTcpNoDelay(true);
+                connected = true;
+                session(s);
+            } catch (StreamCorruptedException | RuntimeException e) {
+                // поток испорчен или кадр не применился: состоянию каталога больше нельзя
+                // доверять - сбрасываем позицию, и лидер при переподключении пришлёт снимок
+                if (running) {
+                    System.err.println("Ошибка применения потока репликации, реплика запросит снимок: " + describe(e));
+                }
+                epoch = 0;
+                appliedSeq = 0;
+            } catch (IOException e) {
+                if (running && connected) {
+                    System.err.println("Связь с лидером потеряна: " + describe(e));
+                }
+            } finally {
+                connected = false;
+            }
+
+            if (running) {
+                reconnects++;
+                try {
+                    Thread.sleep(RECONNECT_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void session(Socket s) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+        out.writeInt(MAGIC);
+        out.writeLong(epoch);
+        out.writeLong(appliedSeq);
+        out.flush();
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+        long pendingEpoch = epoch;
+        boolean inSnapshot = false;
+        while (running) {
+            Frame frame = read(in);
+            switch (frame.type) {
+                case HELLO -> pendingEpoch = decodeLong(frame.payload);
+                case SNAPSHOT_BEGIN -> {
+                    long count = decodeLong(frame.payload);
+                    if (count < 0) {
+                        throw new StreamCorruptedException("Недопустимый размер снимка: " + count);
+                    }
+                    // каталог перезаписывается потоком: оборвётся связь - при переподключении нужен новый снимок
+                    epoch = 0;
+                    appliedSeq = 0;
+                    service.beginSnapshot();
+                    inSnapshot = true;
+                }
+                case SNAPSHOT_ITEM -> {
+                    if (!inSnapshot) {
+                        throw new StreamCorruptedException("SNAPSHOT_ITEM вне снимка");
+                    }
+                    service.applySnapshotItem(decodeProduct(frame.payload));
+                }
+                case SNAPSHOT_END -> {
+                    if (!inSnapshot) {
+                        throw new StreamCorruptedException("SNAPSHOT_END без SNAPSHOT_BEGIN");
+                    }
+                    service.endSnapshot();
+                    inSnapshot = false;
+                    epoch = pendingEpoch;
+                    // seq нового лидера начинаются заново - старый максимум больше не показателен
+                    leaderSeq = frame.seq;
+                    snapshotsLoaded++;
+                    applied(frame);
+                }
+                case UPSERT -> {
+                    service.applyUpsert(decodeProduct(frame.payload));
+                    applied(frame);
+                }
+                case DELETE -> {
+                    service.applyDelete(decodeId(frame.payload));
+                    applied(frame);
+                }
+                case CLEAR -> {
+                    service.applyClear();
+                    applied(frame);
+                }
+                case HEARTBEAT -> {
+                    leaderSeq = Math.max(leaderSeq, frame.seq);
+                    if (appliedSeq >= frame.seq) {
+                        lagMillis = 0;
+                    }
+                }
+                default -> throw new StreamCorruptedException("Неизвестный тип кадра: " + frame.type);
+            }
+        }
+    }
+
+    private static String describe(Exception e) {
+        return e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+    }
+
+    private void applied(Frame frame) {
+        appliedSeq = frame.seq;
+        leaderSeq = Math.max(leaderSeq, frame.seq);
+        // время записи на лидере; на одной машине часы общие, между машинами нужен NTP
+        lagMillis = Math.max(0, System.currentTimeMillis() - frame.leaderTimeMillis);
+    }
+
+    public long getAppliedSeq() {
+        return appliedSeq;
+    }
+
+    public long getLagRecords() {
+        return Math.max(0, leaderSeq - appliedSeq);
+    }
+
+    public long getLagMillis() {
+        return lagMillis;
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    public long getSnapshotsLoaded() {
+        return snapshotsLoaded;
+    }
+
+    public long getReconnects() {
+        return reconnects;
+    }
+
+    public String getStats() {
+        return String.format("лидер %s:%d (%s), применено #%d из #%d, отставание: %d записей / %d мс, снимков получено: %d, переподключений: %d",
+                host, port, connected ? "подключена" : "нет связи",
+                appliedSeq, leaderSeq, getLagRecords(), lagMillis, snapshotsLoaded, reconnects);
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        Socket s = socket;
+        if (s != null) {
+            s.close();
+        }
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+}
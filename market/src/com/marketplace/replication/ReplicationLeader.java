@@ -0,0 +1,261 @@
+package com.marketplace.replication;
+
+import com.marketplace.model.Product;
+import com.marketplace.service.ProductChangeListener;
+import com.marketplace.service.ProductService;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.marketplace.replication.ReplicationProtocol.*;
+
+/**
+ * Лидер: раздаёт поток изменений каталога репликам по TCP.
+ * <p>
+ * Каждое изменение ProductService получает номер seq и попадает в ограниченный журнал
+ * последних записей. Реплика, чей seq ещё есть в журнале, дозаливается из него;
+ * остальные (новые, отставшие, из прошлой эпохи) получают полный снимок.
+ * <p>
+ * Снимок снимается уже после того, как реплика подписана на поток, поэтому часть
+ * изменений придёт ей повторно. Это безопасно: каждая запись - полное состояние
+ * товара, удаление по id или очистка, и повтор суффикса поверх более нового
+ * состояния даёт тот же результат.
+ */
+public class ReplicationLeader implements ProductChangeListener, Closeable {
+
+    private static final long HEARTBEAT_MILLIS = 1000;
+    private static final int MIN_SESSION_QUEUE = 100_000;
+
+    private final ProductService service;
+    private final InetAddress bindAddress;
+    private final int port;
+    private final int logCapacity;
+    private final long epoch = ThreadLocalRandom.current().nextLong();
+
+    // кадры с seq (lastSeq - log.size(), lastSeq]
+    private final ArrayDeque<byte[]> log = new ArrayDeque<>();
+    private final List<Session> sessions = new ArrayList<>();
+    private long lastSeq = 0;
+    private long snapshotsSent = 0;
+    private long catchUps = 0;
+
+    private ServerSocket serverSocket;
+    private volatile boolean running;
+
+    public ReplicationLeader(ProductService service, int port) {
+        this(service, InetAddress.getLoopbackAddress(), port, 10_000);
+    }
+
+    /**
+     * @param bindAddress адрес для приёма реплик; по умолчанию только localhost - протокол без аутентификации
+     * @param logCapacity сколько последних изменений хранить для дозаливки переподключившихся реплик
+     */
+    public ReplicationLeader(ProductService service, InetAddress bindAddress, int port, int logCapacity) {
+        if (logCapacity < 1) {
+            throw new IllegalArgumentException("logCapacity must be positive");
+        }
+        this.service = Objects.requireNonNull(service, "service must not be null");
+        this.bindAddress = bindAddress;
+        this.port = port;
+        this.logCapacity = logCapacity;
+    }
+
+    public void start() throws IOException {
+        serverSocket = new ServerSocket(port, 50, bindAddress);
+        running = true;
+        service.addChangeListener(this);
+
+        Thread acceptor = new Thread(this::acceptLoop, "replication-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        System.out.println("Лидер репликации слушает " + serverSocket.getLocalSocketAddress());
+    }
+
+    public int getPort() {
+        return serverSocket != null ? serverSocket.getLocalPort() : port;
+    }
+
+    // --------------------- Поток изменений ----------------------
+
+    @Override
+    public void onUpsert(Product p) {
+        append(UPSERT, encodeProduct(p));
+    }
+
+    @Override
+    public void onDelete(UUID id) {
+        append(DELETE, encodeId(id));
+    }
+
+    @Override
+    public void onClear() {
+        append(CLEAR, null);
+    }
+
+    private synchronized void append(byte type, byte[] payload) {
+        // кодируем сразу: товар может измениться на месте до отправки
+        byte[] frame = frame(type, ++lastSeq, payload);
+        log.addLast(frame);
+        if (log.size() > logCapacity) {
+            log.removeFirst();
+        }
+        for (Iterator<Session> it = sessions.iterator(); it.hasNext(); ) {
+            Session session = it.next();
+            if (!session.queue.offer(frame)) {
+                // очередь переполнена: реплика отключается и при переподключении получит снимок
+                it.remove();
+                session.close();
+                System.err.println("Реплика " + session.remote + " отстала и отключена");
+            }
+        }
+    }
+
+    // --------------------- Сессии реплик ----------------------
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread t = new Thread(() -> serve(socket), "replication-" + socket.getRemoteSocketAddress());
+                t.setDaemon(true);
+                t.start();
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("Ошибка приёма реплики: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        Session session = new Session(socket, Math.max(MIN_SESSION_QUEUE, logCapacity * 2));
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+            if (in.readInt() != MAGIC) {
+                return;
+            }
+            long followerEpoch = in.readLong();
+            long followerSeq = in.readLong();
+
+            long snapshotSeq = register(session, followerEpoch, followerSeq);
+            out.write(frame(HELLO, snapshotSeq, encodeLong(epoch)));
+            if (snapshotSeq >= 0) {
+                sendSnapshot(out, snapshotSeq);
+            }
+            out.flush();
+
+            while (running && !session.closed) {
+                byte[] next = session.queue.poll(HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+                out.write(next != null ? next : frame(HEARTBEAT, currentSeq(), null));
+                if (session.queue.isEmpty()) {
+                    out.flush();
+                }
+            }
+        } catch (SocketException | EOFException e) {
+            // реплика отключилась
+        } catch (IOException e) {
+            System.err.println("Ошибка репликации на " + session.remote + ": " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            unregister(session);
+        }
+    }
+
+    /**
+     * @return seq снимка, который нужно отправить, или -1, если реплику можно дозалить из журнала
+     */
+    private synchronized long register(Session session, long followerEpoch, long followerSeq) {
+        sessions.add(session);
+        long oldest = lastSeq - log.size() + 1;
+        if (followerEpoch == epoch && followerSeq >= oldest - 1 && followerSeq <= lastSeq) {
+            long seq = oldest;
+            for (byte[] frame : log) {
+                if (seq++ > followerSeq) {
+                    session.queue.add(frame);
+                }
+            }
+            catchUps++;
+            return -1;
+        }
+        snapshotsSent++;
+        return lastSeq;
+    }
+
+    /**
+     * Снимок потоком: в куче только список id, товары читаются и кодируются по одному -
+     * с TieredProductStore каталог может быть больше кучи. Товар, удалённый после снятия
+     * списка id, пропускается, а изменённый уходит в новой версии: в обоих случаях
+     * та же запись уже стоит в очереди сессии и придёт следом.
+     */
+    private void sendSnapshot(DataOutputStream out, long snapshotSeq) throws IOException {
+        List<UUID> ids = service.listIds();
+        out.write(frame(SNAPSHOT_BEGIN, snapshotSeq, encodeLong(ids.size())));
+        for (UUID id : ids) {
+            Product p = service.peekProduct(id);
+            if (p != null) {
+                out.write(frame(SNAPSHOT_ITEM, snapshotSeq, encodeProduct(p)));
+            }
+        }
+        out.write(frame(SNAPSHOT_END, snapshotSeq, null));
+    }
+
+    private synchronized void unregister(Session session) {
+        sessions.remove(session);
+    }
+
+    private synchronized long currentSeq() {
+        return lastSeq;
+    }
+
+    public synchronized String getStats() {
+        return String.format("лидер на порту %d, реплик: %d, последняя запись #%d, журнал: %d/%d, снимков отдано: %d, дозаливок из журнала: %d",
+                getPort(), sessions.size(), lastSeq, log.size(), logCapacity, snapshotsSent, catchUps);
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        if (serverSocket != null) {
+            serverSocket.close();
+        }
+        List<Session> open;
+        synchronized (this) {
+            open = new ArrayList<>(sessions);
+            sessions.clear();
+        }
+        open.forEach(Session::close);
+    }
+
+    private static final class Session {
+        final Socket socket;
+        final String remote;
+        final BlockingQueue<byte[]> queue;
+        volatile boolean closed;
+
+        Session(Socket socket, int queueCapacity) {
+            this.socket = socket;
+            this.remote = String.valueOf(socket.getRemoteSocketAddress());
+            this.queue = new LinkedBlockingQueue<>(queueCapacity);
+        }
+
+        void close() {
+            closed = true;
+            try {
+                socket.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+}
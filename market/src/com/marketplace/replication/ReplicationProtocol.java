@@ -0,0 +1,123 @@
+package com.marketplace.replication;
+
+import com.marketplace.model.Product;
+import com.marketplace.store.ProductCodec;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+/**
+ * Формат обмена лидер - реплика.
+ * <p>
+ * Реплика при подключении шлёт {@code MAGIC, epoch, appliedSeq}.
+ * Дальше лидер шлёт только кадры: {@code type:byte, seq:long, leaderTimeMillis:long, length:int, payload}.
+ * epoch меняется при каждом запуске лидера: seq из другой эпохи не сравнимы.
+ */
+final class ReplicationProtocol {
+
+    static final int MAGIC = 0x4D4B5250; // "MKRP"
+
+    static final byte HELLO = 0;          // payload: epoch лидера
+    static final byte UPSERT = 1;         // payload: товар
+    static final byte DELETE = 2;         // payload: id
+    static final byte CLEAR = 3;
+    static final byte HEARTBEAT = 4;      // seq - последняя запись лидера
+    static final byte SNAPSHOT_BEGIN = 5; // seq - позиция снимка, payload: число товаров (верхняя оценка)
+    static final byte SNAPSHOT_ITEM = 6;  // payload: товар
+    static final byte SNAPSHOT_END = 7;
+
+    // товар - это 16 байт id, три строки writeUTF по 64 КБ и 32 байта чисел; всё, что длиннее, - мусор в потоке
+    static final int MAX_PAYLOAD = 256 * 1024;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private ReplicationProtocol() {
+    }
+
+    static byte[] frame(byte type, long seq, byte[] payload) {
+        byte[] body = payload != null ? payload : EMPTY;
+        return ByteBuffer.allocate(1 + Long.BYTES * 2 + Integer.BYTES + body.length)
+                .put(type)
+                .putLong(seq)
+                .putLong(System.currentTimeMillis())
+                .putInt(body.length)
+                .put(body)
+                .array();
+    }
+
+    static Frame read(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        long seq = in.readLong();
+        long time = in.readLong();
+        int length = in.readInt();
+        if (length < 0 || length > MAX_PAYLOAD) {
+            throw new StreamCorruptedException("Недопустимая длина кадра: " + length);
+        }
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return new Frame(type, seq, time, payload);
+    }
+
+    static byte[] encodeProduct(Product p) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            ProductCodec.write(new DataOutputStream(bytes), p);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            // запись в массив в памяти не бросает IOException
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static Product decodeProduct(byte[] payload) throws StreamCorruptedException {
+        try {
+            return ProductCodec.read(new DataInputStream(new ByteArrayInputStream(payload)));
+        } catch (IOException e) {
+            // массив в памяти: IOException здесь - только обрезанная или испорченная запись
+            throw new StreamCorruptedException("Не удалось разобрать товар: " + e);
+        }
+    }
+
+    static byte[] encodeId(UUID id) {
+        return ByteBuffer.allocate(Long.BYTES * 2)
+                .putLong(id.getMostSignificantBits())
+                .putLong(id.getLeastSignificantBits())
+                .array();
+    }
+
+    static UUID decodeId(byte[] payload) throws StreamCorruptedException {
+        expectLength(payload, Long.BYTES * 2);
+        ByteBuffer buf = ByteBuffer.wrap(payload);
+        return new UUID(buf.getLong(), buf.getLong());
+    }
+
+    static byte[] encodeLong(long value) {
+        return ByteBuffer.allocate(Long.BYTES).putLong(value).array();
+    }
+
+    static long decodeLong(byte[] payload) throws StreamCorruptedException {
+        expectLength(payload, Long.BYTES);
+        return ByteBuffer.wrap(payload).getLong();
+    }
+
+    private static void expectLength(byte[] payload, int expected) throws StreamCorruptedException {
+        if (payload.length != expected) {
+            throw new StreamCorruptedException("Ожидалось " + expected + " байт, получено " + payload.length);
+        }
+    }
+
+    static final class Frame {
+        final byte type;
+        final long seq;
+        final long leaderTimeMillis;
+        final byte[] payload;
+
+        Frame(byte type, long seq, long leaderTimeMillis, byte[] payload) {
+            this.type = type;
+            this.seq = seq;
+            this.leaderTimeMillis = leaderTimeMillis;
+            this.payload = payload;
+        }
+    }
+}
@@ -0,0 +1,585 @@
+package com.marketplace.repository;
+
+import com.marketplace.model.Product;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Репозиторий с инкрементальными чекпойнтами.
+ * <p>
+ * Каталог хранится в директории как цепочка сегментов:
+ * {@code snapshot-N.seg} - полный снимок, {@code delta-N.seg} - только товары,
+ * изменённые с прошлого чекпойнта, и id удалённых. Что изменилось, сообщает
+ * ProductService через {@link #saveChanges} - каталог целиком не сравнивается.
+ * Каждый сегмент заканчивается трейлером (длина + CRC32) и появляется под своим
+ * именем только через fsync + атомарный rename, поэтому оборванная запись
+ * остаётся лишь во временном файле.
+ * <p>
+ * Восстановление: берётся последний целый снимок и к нему по порядку
+ * применяются дельты N+1, N+2, ... до первой пропущенной или битой.
+ * Всё, что лежит дальше, переименовывается в {@code *.broken} и не используется.
+ * <p>
+ * Изменяющий вызов пишет только дельту. Периодический снимок собирается в фоновом потоке
+ * из уже записанных сегментов (снимок N + дельты N+1..M = снимок M), поэтому каталог
+ * в памяти ему не нужен и блокировка ProductService на время снимка не держится.
+ * Полный снимок из памяти внутри вызова пишется только в особых случаях: первый чекпойнт,
+ * очистка каталога ({@link #saveAll}) и восстановление после неудачной записи.
+ */
+public class CheckpointProductRepository implements ProductRepository {
+
+    private static final int MAGIC = 0x4D4B4350; // "MKCP"
+    private static final int DEFAULT_MAX_DELTAS = 1024;
+    private static final byte TYPE_SNAPSHOT = 1;
+    private static final byte TYPE_DELTA = 2;
+    private static final int TRAILER_SIZE = Long.BYTES * 2;
+    private static final int RESET_EVERY = 1024;
+    private static final int MIN_SNAPSHOT_RECORDS = 1024;
+    private static final long DELETED = -1;
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String DELTA_PREFIX = "delta-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private final Path dir;
+    private final Path legacyFile;
+    private final int maxDeltas;
+
+    private long lastSeq = 0;
+    private long snapshotSeq = 0;
+    private int deltasSinceSnapshot = 0;
+    private long deltaRecords = 0;
+    // дельта или снимок не записались - их изменения больше нигде не учтены, следующим должен быть полный снимок
+    private boolean snapshotRequired = false;
+    private long lastRecoveryNanos = 0;
+    private Thread snapshotBuilder; // null - фоновый снимок сейчас не пишется
+    private long backgroundSnapshots = 0;
+
+    /**
+     * @param dir        директория сегментов
+     * @param legacyFile старый products.dat для однократной миграции (может быть null)
+     */
+    public CheckpointProductRepository(String dir, String legacyFile) {
+        this(dir, legacyFile, DEFAULT_MAX_DELTAS);
+    }
+
+    /**
+     * @param dir           директория сегментов
+     * @param legacyFile    старый products.dat для однократной миграции (может быть null)
+     * @param maxDeltas     после скольких файлов дельт писать полный снимок, даже если записей в них мало
+     */
+    public CheckpointProductRepository(String dir, String legacyFile, int maxDeltas) {
+        if (maxDeltas < 1) {
+            throw new IllegalArgumentException("maxDeltas must be positive");
+        }
+        this.dir = Paths.get(dir);
+        this.legacyFile = legacyFile != null ? Paths.get(legacyFile) : null;
+        this.maxDeltas = maxDeltas;
+        try {
+            Files.createDirectories(this.dir);
+        } catch (IOException e) {
+            System.err.println("Не удалось инициализировать директорию чекпойнтов: " + e.getMessage());
+        }
+    }
+
+    // --------------------- Восстановление ----------------------
+
+    @Override
+    public synchronized List<Product> loadAll() {
+        Map<UUID, Product> state = new LinkedHashMap<>();
+        loadInto(new Sink() {
+            @Override
+            public void put(Product p) {
+                state.put(p.getId(), p);
+            }
+
+            @Override
+            public void remove(UUID id) {
+                state.remove(id);
+            }
+        });
+        return new ArrayList<>(state.values());
+    }
+
+    /**
+     * Снимок читается потоком прямо в sink, без промежуточного списка: каталог может не помещаться в кучу.
+     * Снимок и каждая дельта сначала целиком проверяются по CRC, и только потом применяются.
+     */
+    @Override
+    public synchronized void loadInto(Sink sink) {
+        long start = System.nanoTime();
+        lastSeq = 0;
+        snapshotSeq = 0;
+        deltasSinceSnapshot = 0;
+        deltaRecords = 0;
+
+        try {
+            deleteTempFiles();
+            TreeMap<Long, Path> snapshots = listSegments(SNAPSHOT_PREFIX);
+            TreeMap<Long, Path> deltas = listSegments(DELTA_PREFIX);
+
+            if (snapshots.isEmpty() && deltas.isEmpty()) {
+                loadLegacy(sink);
+                lastRecoveryNanos = System.nanoTime() - start;
+                return;
+            }
+
+            Long base = null;
+            for (Long seq : snapshots.descendingKeySet()) {
+                if (verifySegment(snapshots.get(seq))) {
+                    base = seq;
+                    break;
+                }
+                System.err.println("Снимок повреждён и пропущен: " + snapshots.get(seq));
+            }
+            if (base == null) {
+                // без целого снимка восстанавливаться некуда: пустой каталог здесь означал бы потерю данных
+                throw new IllegalStateException("В " + dir.toAbsolutePath() + " нет ни одного целого снимка");
+            }
+            long[] loaded = {0};
+            boolean read = readSegment(snapshots.get(base), TYPE_SNAPSHOT, base, p -> {
+                sink.put(p);
+                loaded[0]++;
+            }, id -> { });
+            if (!read) {
+                // CRC сошёлся, а формат нет - часть товаров уже в sink, откатить нельзя
+                throw new IllegalStateException("Снимок " + snapshots.get(base) + " не читается: неизвестный формат");
+            }
+
+            long seq = base;
+            while (deltas.containsKey(seq + 1)) {
+                Path path = deltas.get(seq + 1);
+                List<Product> upserts = new ArrayList<>();
+                List<UUID> deletes = new ArrayList<>();
+                if (!verifySegment(path) || !readSegment(path, TYPE_DELTA, seq + 1, upserts::add, deletes::add)) {
+                    System.err.println("Дельта повреждена, восстановление остановлено на #" + seq + ": " + path);
+                    break;
+                }
+                deletes.forEach(sink::remove);
+                upserts.forEach(sink::put);
+                deltaRecords += upserts.size() + deletes.size();
+                seq++;
+            }
+
+            quarantineAfter(seq, snapshots, deltas);
+
+            lastSeq = seq;
+            snapshotSeq = base;
+            deltasSinceSnapshot = (int) (seq - base);
+            lastRecoveryNanos = System.nanoTime() - start;
+
+            System.out.printf("Восстановлено: снимок #%d (товаров: %d) + дельт: %d (записей: %d) за %.2f мс%n",
+                    base, loaded[0], deltasSinceSnapshot, deltaRecords, lastRecoveryNanos / 1_000_000.0);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Ошибка при восстановлении каталога из " + dir, e);
+        }
+    }
+
+    private void loadLegacy(Sink sink) {
+        if (legacyFile == null || !Files.exists(legacyFile)) {
+            return;
+        }
+        // снимка ещё нет (snapshotSeq == 0), поэтому первый чекпойнт запишет полный снимок
+        List<Product> products = new FileProductRepository(legacyFile.toString()).loadAll();
+        products.forEach(sink::put);
+        System.out.println("Загружено из " + legacyFile + " для миграции: " + products.size());
+    }
+
+    private void deleteTempFiles() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path p : (Iterable<Path>) files::iterator) {
+                if (p.getFileName().toString().endsWith(".tmp")) {
+                    Files.deleteIfExists(p);
+                }
+            }
+        }
+    }
+
+    private void quarantineAfter(long seq, TreeMap<Long, Path> snapshots, TreeMap<Long, Path> deltas) throws IOException {
+        List<Path> stale = new ArrayList<>(snapshots.tailMap(seq, false).values());
+        stale.addAll(deltas.tailMap(seq, false).values());
+        for (Path p : stale) {
+            Files.move(p, p.resolveSibling(p.getFileName() + ".broken"), StandardCopyOption.REPLACE_EXISTING);
+            System.err.println("Сегмент после точки восстановления отложен: " + p);
+        }
+    }
+
+    // --------------------- Чекпойнты ----------------------
+
+    /**
+     * Полный снимок каталога - например, после очистки.
+     */
+    @Override
+    public synchronized void saveAll(Collection<Product> products) {
+        writeSnapshot(products);
+    }
+
+    /**
+     * Дельта пишется на каждое изменение: консоль сохраняет каждую операцию сразу,
+     * и дельта стоит O(изменённых товаров), а не O(каталога).
+     * Снимок нужен, когда дельт накопилось столько, что их чтение при восстановлении
+     * сравнимо с чтением снимка: записей в дельтах больше четверти каталога
+     * (но не меньше MIN_SNAPSHOT_RECORDS) или файлов дельт больше maxDeltas.
+     * Тогда запускается фоновая сборка снимка, а этот вызов возвращается сразу после дельты.
+     */
+    @Override
+    public synchronized void saveChanges(Collection<Product> changed, Collection<UUID> deleted,
+                                         Collection<Product> products) {
+        if (snapshotSeq == 0 || snapshotRequired) {
+            writeSnapshot(products);
+            return;
+        }
+        if (changed.isEmpty() && deleted.isEmpty()) {
+            return;
+        }
+
+        long seq = lastSeq + 1;
+        try {
+            writeSegment(segmentPath(DELTA_PREFIX, seq), TYPE_DELTA, seq, changed.size(), all(changed), deleted);
+        } catch (IOException e) {
+            // номер не занимаем: следующий чекпойнт (полный снимок) запишется под тем же seq
+            snapshotRequired = true;
+            throw new UncheckedIOException("Ошибка при записи чекпойнта #" + seq, e);
+        }
+        lastSeq = seq;
+        deltasSinceSnapshot++;
+        deltaRecords += changed.size() + deleted.size();
+
+        if (snapshotDue(products.size()) && snapshotBuilder == null) {
+            long base = snapshotSeq;
+            long records = deltaRecords;
+            snapshotBuilder = new Thread(() -> buildSnapshot(base, seq, records), "checkpoint-snapshot-" + seq);
+            snapshotBuilder.setDaemon(true);
+            snapshotBuilder.start();
+        }
+    }
+
+    private boolean snapshotDue(int catalogSize) {
+        return deltasSinceSnapshot >= maxDeltas
+                || deltaRecords >= Math.max(MIN_SNAPSHOT_RECORDS, catalogSize / 4);
+    }
+
+    private void writeSnapshot(Collection<Product> products) {
+        long seq = lastSeq + 1;
+        try {
+            writeSegment(segmentPath(SNAPSHOT_PREFIX, seq), TYPE_SNAPSHOT, seq, products.size(), all(products),
+                    Collections.emptyList());
+        } catch (IOException e) {
+            // на диске остался прежний снимок: дельта поверх него вернула бы то, что снимок должен был убрать (например, очистку)
+            snapshotRequired = true;
+            throw new UncheckedIOException("Ошибка при записи снимка #" + seq, e);
+        }
+        lastSeq = seq;
+        snapshotSeq = seq;
+        deltasSinceSnapshot = 0;
+        deltaRecords = 0;
+        snapshotRequired = false;
+        deleteSegmentsBefore(seq);
+    }
+
+    private void deleteSegmentsBefore(long seq) {
+        try {
+            List<Path> old = new ArrayList<>(listSegments(SNAPSHOT_PREFIX).headMap(seq, false).values());
+            // дельта с тем же seq уже вошла в снимок, собранный в фоне
+            old.addAll(listSegments(DELTA_PREFIX).headMap(seq, true).values());
+            for (Path p : old) {
+                Files.deleteIfExists(p);
+            }
+        } catch (IOException e) {
+            // старые сегменты не мешают восстановлению, удалим при следующем снимке
+            System.err.println("Не удалось удалить устаревшие сегменты: " + e.getMessage());
+        }
+    }
+
+    // --------------------- Фоновый снимок ----------------------
+
+    /**
+     * Снимок #target из снимка #base и дельт base+1..target. Сегменты до target уже не меняются,
+     * поэтому читаются без блокировки; в памяти - только последняя версия (seq, номер записи)
+     * каждого id, затронутого дельтами, а сами товары идут потоком из файлов в файл.
+     */
+    private void buildSnapshot(long base, long target, long records) {
+        try {
+            Path baseSnapshot = segmentPath(SNAPSHOT_PREFIX, base);
+            if (!verifySegment(baseSnapshot)) {
+                throw new IOException("снимок #" + base + " не прошёл проверку CRC");
+            }
+            Map<UUID, Long> latest = new HashMap<>();
+            for (long seq = base + 1; seq <= target; seq++) {
+                Path delta = segmentPath(DELTA_PREFIX, seq);
+                List<UUID> upserts = new ArrayList<>();
+                List<UUID> deletes = new ArrayList<>();
+                if (!verifySegment(delta) || !readSegment(delta, TYPE_DELTA, seq, p -> upserts.add(p.getId()), deletes::add)) {
+                    throw new IOException("дельта #" + seq + " не читается");
+                }
+                // тот же порядок, что при восстановлении: сначала удаления, потом изменения
+                for (UUID id : deletes) {
+                    latest.put(id, DELETED);
+                }
+                for (int i = 0; i < upserts.size(); i++) {
+                    latest.put(upserts.get(i), version(seq, i));
+                }
+            }
+
+            long[] count = {0};
+            readSnapshot(baseSnapshot, base, p -> {
+                if (!latest.containsKey(p.getId())) {
+                    count[0]++;
+                }
+            });
+            for (long v : latest.values()) {
+                if (v != DELETED) {
+                    count[0]++;
+                }
+            }
+
+            writeSegment(segmentPath(SNAPSHOT_PREFIX, target), TYPE_SNAPSHOT, target, (int) count[0], out -> {
+                readSnapshot(baseSnapshot, base, p -> {
+                    if (!latest.containsKey(p.getId())) {
+                        out.accept(p);
+                    }
+                });
+                for (long seq = base + 1; seq <= target; seq++) {
+                    long deltaSeq = seq;
+                    int[] index = {0};
+                    boolean read = readSegment(segmentPath(DELTA_PREFIX, seq), TYPE_DELTA, seq, p -> {
+                        if (latest.get(p.getId()) == version(deltaSeq, index[0]++)) {
+                            out.accept(p);
+                        }
+                    }, id -> { });
+                    if (!read) {
+                        throw new IOException("дельта #" + seq + " не читается");
+                    }
+                }
+            }, Collections.emptyList());
+            commitSnapshot(base, target, records);
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                if (snapshotSeq == base) {
+                    // из файлов снимок не собрался - следующий чекпойнт запишет его из памяти
+                    snapshotRequired = true;
+                    System.err.println("Не удалось собрать снимок #" + target + " в фоне: " + e.getMessage());
+                }
+            }
+        } finally {
+            synchronized (this) {
+                snapshotBuilder = null;
+            }
+        }
+    }
+
+    private synchronized void commitSnapshot(long base, long target, long records) throws IOException {
+        if (snapshotSeq != base) {
+            // пока собирали, saveAll записал снимок новее - этот уже не нужен
+            Files.deleteIfExists(segmentPath(SNAPSHOT_PREFIX, target));
+            return;
+        }
+        snapshotSeq = target;
+        deltasSinceSnapshot = (int) (lastSeq - target);
+        deltaRecords -= records;
+        backgroundSnapshots++;
+        deleteSegmentsBefore(target);
+    }
+
+    private void readSnapshot(Path path, long seq, IOConsumer<Product> onProduct) throws IOException {
+        if (!readSegment(path, TYPE_SNAPSHOT, seq, onProduct, id -> { })) {
+            throw new IOException("снимок #" + seq + " не читается");
+        }
+    }
+
+    private static long version(long seq, int index) {
+        return seq << 32 | index;
+    }
+
+    /**
+     * Дождаться фонового снимка, если он сейчас пишется.
+     */
+    void awaitSnapshot() throws InterruptedException {
+        Thread builder;
+        synchronized (this) {
+            builder = snapshotBuilder;
+        }
+        if (builder != null) {
+            builder.join();
+        }
+    }
+
+    // --------------------- Формат сегмента ----------------------
+
+    private void writeSegment(Path target, byte type, long seq,
+                              int upsertCount, ProductSource upserts, Collection<UUID> deletes) throws IOException {
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp.toFile())) {
+            CRC32 crc = new CRC32();
+            BufferedOutputStream buffered = new BufferedOutputStream(fos);
+            ObjectOutputStream oos = new ObjectOutputStream(new CheckedOutputStream(buffered, crc));
+            oos.writeInt(MAGIC);
+            oos.writeByte(type);
+            oos.writeLong(seq);
+            oos.writeInt(upsertCount);
+            int[] written = {0};
+            upserts.forEach(p -> {
+                oos.writeObject(p);
+                // таблица ссылок ObjectOutputStream иначе держит весь снимок в памяти
+                if (++written[0] % RESET_EVERY == 0) {
+                    oos.reset();
+                }
+            });
+            if (written[0] != upsertCount) {
+                throw new IOException("Записано товаров: " + written[0] + ", ожидалось: " + upsertCount);
+            }
+            oos.writeInt(deletes.size());
+            for (UUID id : deletes) {
+                oos.writeLong(id.getMostSignificantBits());
+                oos.writeLong(id.getLeastSignificantBits());
+            }
+            oos.flush();
+
+            DataOutputStream trailer = new DataOutputStream(buffered);
+            trailer.writeLong(fos.getChannel().position());
+            trailer.writeLong(crc.getValue());
+            trailer.flush();
+            fos.getFD().sync();
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+
+        try {
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        syncDirectory();
+    }
+
+    /**
+     * @return false, если файл обрезан или CRC не сошёлся
+     */
+    private boolean verifySegment(Path path) throws IOException {
+        long size = Files.size(path);
+        if (size < TRAILER_SIZE) {
+            return false;
+        }
+        long length;
+        long expectedCrc;
+        try (RandomAccessFile raf = new RandomAccessFile(path.toFile(), "r")) {
+            raf.seek(size - TRAILER_SIZE);
+            length = raf.readLong();
+            expectedCrc = raf.readLong();
+        }
+        if (length != size - TRAILER_SIZE) {
+            return false;
+        }
+
+        CRC32 crc = new CRC32();
+        try (InputStream in = new CheckedInputStream(new BufferedInputStream(Files.newInputStream(path)), crc)) {
+            byte[] buf = new byte[64 * 1024];
+            long remaining = length;
+            while (remaining > 0) {
+                int n = in.read(buf, 0, (int) Math.min(buf.length, remaining));
+                if (n < 0) {
+                    return false;
+                }
+                remaining -= n;
+            }
+        }
+        return crc.getValue() == expectedCrc;
+    }
+
+    /**
+     * Разбор уже проверенного сегмента.
+     *
+     * @return false, если заголовок не тот (тип, seq) или формат не читается
+     */
+    private boolean readSegment(Path path, byte expectedType, long expectedSeq,
+                                IOConsumer<Product> onUpsert, IOConsumer<UUID> onDelete) throws IOException {
+        try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (ois.readInt() != MAGIC || ois.readByte() != expectedType || ois.readLong() != expectedSeq) {
+                return false;
+            }
+            int upserts = ois.readInt();
+            for (int i = 0; i < upserts; i++) {
+                onUpsert.accept((Product) ois.readObject());
+            }
+            int deletes = ois.readInt();
+            for (int i = 0; i < deletes; i++) {
+                onDelete.accept(new UUID(ois.readLong(), ois.readLong()));
+            }
+            return true;
+        } catch (ClassNotFoundException | ClassCastException | ObjectStreamException | EOFException e) {
+            return false;
+        }
+    }
+
+    private void syncDirectory() {
+        // на Linux rename становится надёжным только после fsync каталога; на Windows так нельзя - игнорируем
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ignore) {
+        }
+    }
+
+    private TreeMap<Long, Path> listSegments(String prefix) throws IOException {
+        TreeMap<Long, Path> result = new TreeMap<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path p : (Iterable<Path>) files::iterator) {
+                String name = p.getFileName().toString();
+                if (name.startsWith(prefix) && name.endsWith(SEGMENT_SUFFIX)) {
+                    try {
+                        result.put(Long.parseLong(name.substring(prefix.length(), name.length() - SEGMENT_SUFFIX.length())), p);
+                    } catch (NumberFormatException ignore) {
+                        // чужой файл в директории - не наш сегмент
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private Path segmentPath(String prefix, long seq) {
+        return dir.resolve(String.format("%s%016d%s", prefix, seq, SEGMENT_SUFFIX));
+    }
+
+    private static ProductSource all(Collection<Product> products) {
+        return out -> {
+            for (Product p : products) {
+                out.accept(p);
+            }
+        };
+    }
+
+    @FunctionalInterface
+    private interface IOConsumer<T> {
+        void accept(T value) throws IOException;
+    }
+
+    // товары сегмента отдаются по одному - фоновый снимок пишет их прямо из других сегментов
+    @FunctionalInterface
+    private interface ProductSource {
+        void forEach(IOConsumer<Product> action) throws IOException;
+    }
+
+    // --------------------- Метрики ----------------------
+
+    public synchronized long getLastRecoveryNanos() {
+        return lastRecoveryNanos;
+    }
+
+    public synchronized long getLastSeq() {
+        return lastSeq;
+    }
+
+    @Override
+    public synchronized String getStorageInfo() {
+        return String.format("%s (чекпойнт #%d, снимок #%d, дельт после снимка: %d, фоновых снимков: %d, восстановление: %.2f мс)",
+                dir.toAbsolutePath(), lastSeq, snapshotSeq, deltasSinceSnapshot, backgroundSnapshots,
+                lastRecoveryNanos / 1_000_000.0);
+    }
+}
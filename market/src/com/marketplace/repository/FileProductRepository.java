@@ -33,6 +33,10 @@ public class FileProductRepository implements ProductRepository {
         }
     }
 
+    /**
+     * Ошибки чтения не глушатся: пустой список вместо битого файла
+     * при следующем persist() молча затёр бы весь каталог.
+     */
     @Override
     public List<Product> loadAll() {
         if (!Files.exists(filePath) || filePath.toFile().length() == 0) {
@@ -45,27 +49,26 @@ public class FileProductRepository implements ProductRepository {
             if (obj instanceof List) {
                 //noinspection unchecked
                 return (List<Product>) obj;
-            } else {
-                System.err.println("Непредвиденный формат файла: ожидался List<Product>");
             }
-        } catch (EOFException eof) {
-            return new ArrayList<>();
-        } catch (IOException | ClassNotFoundException e) {
-            System.err.println("Ошибка при загрузке продуктов из файла: " + e.getMessage());
-            e.printStackTrace();
+            throw new IllegalStateException("Непредвиденный формат файла " + filePath + ": ожидался List<Product>");
+        } catch (IOException e) {
+            throw new UncheckedIOException("Ошибка при загрузке продуктов из файла " + filePath, e);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Ошибка при загрузке продуктов из файла " + filePath, e);
         }
-        return new ArrayList<>();
     }
 
     @Override
     public void saveAll(Collection<Product> products) {
         Path tmp = filePath.resolveSibling(filePath.getFileName() + ".tmp");
         // запись во временный файл tmp
-        try (ObjectOutputStream oos = new ObjectOutputStream(
-                new BufferedOutputStream(Files.newOutputStream(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)))) {
+        try (FileOutputStream fos = new FileOutputStream(tmp.toFile());
+             ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(fos))) {
             List<Product> list = new ArrayList<>(products);
             oos.writeObject(list);
             oos.flush();
+            // данные должны лежать на диске до rename, иначе после сбоя получим пустой файл
+            fos.getFD().sync();
         } catch (IOException e) {
             System.err.println("Ошибка при записи временного файла: " + e.getMessage());
             e.printStackTrace();
@@ -73,7 +76,8 @@ public class FileProductRepository implements ProductRepository {
             return;
         }
 
-        // попытка переместить/заменить основной файл
+        // попытка атомарно заменить основной файл; неатомарный copy не используем -
+        // сбой посреди копирования оставил бы обрезанный products.dat
         boolean success = false;
         int attempts = 0;
         while (!success && attempts < 3) {
@@ -84,16 +88,9 @@ public class FileProductRepository implements ProductRepository {
                 success = true;
             }
             catch (IOException atomicEx) {
-                try {
-                    Files.copy(tmp, filePath, StandardCopyOption.REPLACE_EXISTING);
-                    Files.deleteIfExists(tmp);
-                    success = true;
-
-                } catch (IOException fallbackEx) {
-                    System.err.println("Попытка " + attempts + " не удалась: " + fallbackEx.getMessage());
+                System.err.println("Попытка " + attempts + " не удалась: " + atomicEx.getMessage());
 
-                    try { TimeUnit.MILLISECONDS.sleep(150); } catch (InterruptedException ie) { Thread.currentThread().interrupt(); }
-                }
+                try { TimeUnit.MILLISECONDS.sleep(150); } catch (InterruptedException ie) { Thread.currentThread().interrupt(); }
             }
         }
 
@@ -0,0 +1,28 @@
+package com.marketplace.repository;
+
+import com.marketplace.model.Product;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Репозиторий без персистентности - для реплик, которые получают каталог от лидера.
+ */
+public class InMemoryProductRepository implements ProductRepository {
+
+    @Override
+    public List<Product> loadAll() {
+        return new ArrayList<>();
+    }
+
+    @Override
+    public void saveAll(Collection<Product> products) {
+        // данные живут только в памяти
+    }
+
+    @Override
+    public String getStorageInfo() {
+        return "в памяти (без сохранения)";
+    }
+}
@@ -12,7 +12,35 @@ public interface ProductRepository {
 
     void saveAll(Collection<Product> products);
 
+    /**
+     * Сохранение после точечного изменения. changed - добавленные и изменённые товары,
+     * deleted - id удалённых, products - весь каталог (нужен реализациям, которые
+     * умеют писать только целиком, и для снимков).
+     */
+    default void saveChanges(Collection<Product> changed, Collection<UUID> deleted, Collection<Product> products) {
+        saveAll(products);
+    }
+
+    /**
+     * Загрузка без промежуточного списка - для каталогов, которые не помещаются в кучу.
+     * Реализации, которые всё равно читают всё целиком, могут не переопределять.
+     */
+    default void loadInto(Sink sink) {
+        for (Product p : loadAll()) {
+            sink.put(p);
+        }
+    }
+
     default String getStorageInfo() {
         return "unknown";
     }
+
+    /**
+     * Приёмник восстанавливаемого каталога; remove нужен для применения удалений из журналов.
+     */
+    interface Sink {
+        void put(Product p);
+
+        void remove(UUID id);
+    }
 }
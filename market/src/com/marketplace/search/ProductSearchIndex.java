@@ -0,0 +1,81 @@
+package com.marketplace.search;
+
+import com.marketplace.model.Product;
+
+import java.util.*;
+
+/**
+ * Индекс для автодополнения и нечёткого поиска по названию, бренду и категории.
+ * Обновляется инкрементально на каждое изменение каталога.
+ * <p>
+ * Индекс целиком в куче, и с TieredProductStore тоже: бренды и категории занимают мало,
+ * а дерево названий - узел на каждый символ уникального хвоста названия, около 250 байт
+ * на товар. Поэтому куча с горячим кэшем ограничена не полностью - индекс растёт с каталогом.
+ */
+public class ProductSearchIndex {
+
+    private final Map<Suggestion.Field, TermTrie> tries = new EnumMap<>(Suggestion.Field.class);
+
+    public ProductSearchIndex() {
+        for (Suggestion.Field field : Suggestion.Field.values()) {
+            tries.put(field, new TermTrie(field));
+        }
+    }
+
+    public synchronized void add(Product p) {
+        tries.get(Suggestion.Field.NAME).add(p.getName(), p.getId());
+        tries.get(Suggestion.Field.CATEGORY).add(p.getCategory(), p.getId());
+        tries.get(Suggestion.Field.BRAND).add(p.getBrand(), p.getId());
+    }
+
+    public synchronized void remove(Product p) {
+        remove(p.getId(), p.getName(), p.getCategory(), p.getBrand());
+    }
+
+    /**
+     * Удаление по старым значениям полей - для обновления, когда товар уже изменён на месте.
+     */
+    public synchronized void remove(UUID id, String name, String category, String brand) {
+        tries.get(Suggestion.Field.NAME).remove(name, id);
+        tries.get(Suggestion.Field.CATEGORY).remove(category, id);
+        tries.get(Suggestion.Field.BRAND).remove(brand, id);
+    }
+
+    public synchronized void clear() {
+        tries.values().forEach(TermTrie::clear);
+    }
+
+    /**
+     * Автодополнение: значения всех полей, начинающиеся с prefix, самые популярные первыми.
+     */
+    public synchronized List<Suggestion> suggest(String prefix, int limit) {
+        List<Suggestion> all = new ArrayList<>();
+        for (TermTrie trie : tries.values()) {
+            all.addAll(trie.prefix(prefix, limit));
+        }
+        all.sort(Comparator.comparingInt(Suggestion::getProductCount).reversed()
+                .thenComparing(Suggestion::getText));
+        return all.size() > limit ? new ArrayList<>(all.subList(0, limit)) : all;
+    }
+
+    /**
+     * Значения всех полей, отличающиеся от запроса не более чем на maxEdits правок.
+     */
+    public synchronized List<Suggestion> fuzzy(String query, int maxEdits, int limit) {
+        List<Suggestion> all = new ArrayList<>();
+        for (TermTrie trie : tries.values()) {
+            all.addAll(trie.fuzzy(query, maxEdits, limit));
+        }
+        all.sort(Comparator.comparingInt(Suggestion::getDistance)
+                .thenComparing(Comparator.comparingInt(Suggestion::getProductCount).reversed())
+                .thenComparing(Suggestion::getText));
+        return all.size() > limit ? new ArrayList<>(all.subList(0, limit)) : all;
+    }
+
+    /**
+     * Id товаров, у которых значение поля совпадает с text без учёта регистра.
+     */
+    public synchronized Set<UUID> productIds(Suggestion.Field field, String text) {
+        return tries.get(field).ids(text);
+    }
+}
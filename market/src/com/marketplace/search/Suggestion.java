@@ -0,0 +1,36 @@
+package com.marketplace.search;
+
+/**
+ * Подсказка поиска: значение поля, по которому найдётся хотя бы один товар.
+ */
+public class Suggestion {
+
+    public enum Field { NAME, CATEGORY, BRAND }
+
+    private final String text;
+    private final Field field;
+    private final int productCount;
+    private final int distance;
+
+    public Suggestion(String text, Field field, int productCount, int distance) {
+        this.text = text;
+        this.field = field;
+        this.productCount = productCount;
+        this.distance = distance;
+    }
+
+    public String getText() { return text; }
+    public Field getField() { return field; }
+    public int getProductCount() { return productCount; }
+
+    /**
+     * Расстояние Левенштейна до запроса; 0 для подсказок по префиксу.
+     */
+    public int getDistance() { return distance; }
+
+    @Override
+    public String toString() {
+        return String.format("%s [%s, товаров: %d%s]", text, field.name().toLowerCase(), productCount,
+                distance > 0 ? ", правок: " + distance : "");
+    }
+}
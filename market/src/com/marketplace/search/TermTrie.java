@@ -0,0 +1,330 @@
+package com.marketplace.search;
+
+import java.util.*;
+
+/**
+ * Префиксное дерево значений одного поля (название, бренд или категория).
+ * <p>
+ * Ключи хранятся в нижнем регистре, в терминальном узле - исходное написание
+ * и id товаров с этим значением. Каждый узел кэширует топ значений своего поддерева
+ * по числу товаров, поэтому подсказка по префиксу стоит O(длина префикса + K).
+ * Изменение значения сбрасывает кэш только на пути от корня до его узла,
+ * пересчёт ленивый - при следующем запросе.
+ */
+final class TermTrie {
+
+    static final int CACHED_TOP = 16;
+
+    private static final char[] NO_KEYS = new char[0];
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    // больше товаров - выше; при равенстве - по алфавиту
+    private static final Comparator<Term> BY_POPULARITY = Comparator
+            .comparingInt((Term t) -> -t.size)
+            .thenComparing(t -> t.display);
+
+    private final Suggestion.Field field;
+    private Node root = new Node();
+
+    TermTrie(Suggestion.Field field) {
+        this.field = field;
+    }
+
+    void add(String value, UUID id) {
+        String key = normalize(value);
+        if (key.isEmpty()) {
+            return;
+        }
+        Node node = root;
+        node.top = null;
+        for (int i = 0; i < key.length(); i++) {
+            node = node.childOrCreate(key.charAt(i));
+            node.top = null;
+        }
+        if (node.term == null) {
+            node.term = new Term();
+        }
+        node.term.display = value.trim();
+        node.term.add(id);
+    }
+
+    void remove(String value, UUID id) {
+        String key = normalize(value);
+        if (!key.isEmpty()) {
+            remove(root, key, 0, id);
+        }
+    }
+
+    void clear() {
+        root = new Node();
+    }
+
+    Set<UUID> ids(String value) {
+        Node node = find(normalize(value));
+        if (node == null || node.term == null) {
+            return Collections.emptySet();
+        }
+        Set<UUID> result = new HashSet<>();
+        node.term.copyTo(result);
+        return result;
+    }
+
+    List<Suggestion> prefix(String prefix, int limit) {
+        Node node = find(normalize(prefix));
+        if (node == null || limit <= 0) {
+            return new ArrayList<>();
+        }
+        List<Term> terms;
+        if (limit <= CACHED_TOP) {
+            terms = Arrays.asList(top(node));
+        } else {
+            terms = new ArrayList<>();
+            collect(node, terms);
+            terms.sort(BY_POPULARITY);
+        }
+        List<Suggestion> result = new ArrayList<>();
+        for (Term t : terms.subList(0, Math.min(limit, terms.size()))) {
+            result.add(new Suggestion(t.display, field, t.size, 0));
+        }
+        return result;
+    }
+
+    /**
+     * Значения на расстоянии Левенштейна не больше maxEdits от запроса.
+     * Дерево обходится с построчным расчётом матрицы расстояний, ветка отсекается,
+     * как только минимум в строке превысил maxEdits, - тот же отбор, что делает автомат Левенштейна.
+     */
+    List<Suggestion> fuzzy(String query, int maxEdits, int limit) {
+        String q = normalize(query);
+        List<Suggestion> result = new ArrayList<>();
+        if (q.isEmpty() || limit <= 0) {
+            return result;
+        }
+        int[] firstRow = new int[q.length() + 1];
+        for (int i = 0; i < firstRow.length; i++) {
+            firstRow[i] = i;
+        }
+        for (int i = 0; i < root.size; i++) {
+            fuzzy(root.children[i], root.keys[i], q, firstRow, maxEdits, result);
+        }
+        result.sort(Comparator.comparingInt(Suggestion::getDistance)
+                .thenComparingInt(s -> -s.getProductCount())
+                .thenComparing(Suggestion::getText));
+        return result.size() > limit ? new ArrayList<>(result.subList(0, limit)) : result;
+    }
+
+    static String normalize(String value) {
+        return value == null ? "" : value.trim().toLowerCase(Locale.ROOT);
+    }
+
+    // --------------------- Внутреннее ----------------------
+
+    private void fuzzy(Node node, char c, String q, int[] prevRow, int maxEdits, List<Suggestion> out) {
+        int[] row = new int[prevRow.length];
+        row[0] = prevRow[0] + 1;
+        int rowMin = row[0];
+        for (int i = 1; i < row.length; i++) {
+            int insert = row[i - 1] + 1;
+            int delete = prevRow[i] + 1;
+            int replace = prevRow[i - 1] + (q.charAt(i - 1) == c ? 0 : 1);
+            row[i] = Math.min(Math.min(insert, delete), replace);
+            rowMin = Math.min(rowMin, row[i]);
+        }
+
+        int distance = row[row.length - 1];
+        if (distance <= maxEdits && node.term != null) {
+            out.add(new Suggestion(node.term.display, field, node.term.size, distance));
+        }
+        if (rowMin <= maxEdits) {
+            for (int i = 0; i < node.size; i++) {
+                fuzzy(node.children[i], node.keys[i], q, row, maxEdits, out);
+            }
+        }
+    }
+
+    /**
+     * @return true, если узел опустел и его можно отцепить от родителя
+     */
+    private boolean remove(Node node, String key, int depth, UUID id) {
+        node.top = null;
+        if (depth == key.length()) {
+            if (node.term != null) {
+                node.term.remove(id);
+                if (node.term.size == 0) {
+                    node.term = null;
+                }
+            }
+        } else {
+            char c = key.charAt(depth);
+            Node child = node.child(c);
+            if (child != null && remove(child, key, depth + 1, id)) {
+                node.removeChild(c);
+            }
+        }
+        return node.term == null && node.size == 0;
+    }
+
+    private Node find(String key) {
+        Node node = root;
+        for (int i = 0; i < key.length() && node != null; i++) {
+            node = node.child(key.charAt(i));
+        }
+        return node;
+    }
+
+    private Term[] top(Node node) {
+        if (node.top != null) {
+            return node.top;
+        }
+        List<Term> candidates = new ArrayList<>();
+        if (node.term != null) {
+            candidates.add(node.term);
+        }
+        for (int i = 0; i < node.size; i++) {
+            candidates.addAll(Arrays.asList(top(node.children[i])));
+        }
+        candidates.sort(BY_POPULARITY);
+        node.top = candidates.subList(0, Math.min(CACHED_TOP, candidates.size())).toArray(new Term[0]);
+        return node.top;
+    }
+
+    private void collect(Node node, List<Term> out) {
+        if (node.term != null) {
+            out.add(node.term);
+        }
+        for (int i = 0; i < node.size; i++) {
+            collect(node.children[i], out);
+        }
+    }
+
+    /**
+     * Значение и id его товаров. Названия почти всегда уникальны, поэтому id хранятся
+     * по нарастающей: один - просто ссылкой, до ARRAY_LIMIT - массивом, дальше - HashSet.
+     * Сами UUID общие с товарами, отдельный HashSet на каждое название стоил бы ~300 байт.
+     */
+    private static final class Term {
+        private static final int ARRAY_LIMIT = 8;
+
+        String display;
+        int size;
+        private Object ids; // null, UUID, UUID[] или HashSet<UUID>
+
+        void add(UUID id) {
+            if (size == 0) {
+                ids = id;
+                size = 1;
+            } else if (ids instanceof UUID single) {
+                if (!single.equals(id)) {
+                    ids = new UUID[]{single, id, null, null};
+                    size = 2;
+                }
+            } else if (ids instanceof UUID[] array) {
+                for (int i = 0; i < size; i++) {
+                    if (array[i].equals(id)) {
+                        return;
+                    }
+                }
+                if (size < ARRAY_LIMIT) {
+                    if (size == array.length) {
+                        array = Arrays.copyOf(array, size * 2);
+                        ids = array;
+                    }
+                    array[size++] = id;
+                } else {
+                    Set<UUID> set = new HashSet<>(Arrays.asList(array));
+                    set.add(id);
+                    ids = set;
+                    size = set.size();
+                }
+            } else {
+                Set<UUID> set = set();
+                set.add(id);
+                size = set.size();
+            }
+        }
+
+        void remove(UUID id) {
+            if (ids instanceof UUID single) {
+                if (single.equals(id)) {
+                    ids = null;
+                    size = 0;
+                }
+            } else if (ids instanceof UUID[] array) {
+                for (int i = 0; i < size; i++) {
+                    if (array[i].equals(id)) {
+                        array[i] = array[--size];
+                        array[size] = null;
+                        if (size == 1) {
+                            ids = array[0];
+                        }
+                        return;
+                    }
+                }
+            } else if (ids != null) {
+                Set<UUID> set = set();
+                set.remove(id);
+                size = set.size();
+            }
+        }
+
+        void copyTo(Collection<UUID> out) {
+            if (ids instanceof UUID single) {
+                out.add(single);
+            } else if (ids instanceof UUID[] array) {
+                out.addAll(Arrays.asList(array).subList(0, size));
+            } else if (ids != null) {
+                out.addAll(set());
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private Set<UUID> set() {
+            return (Set<UUID>) ids;
+        }
+    }
+
+    private static final class Node {
+        // дети в отсортированных массивах: на миллионах узлов это заметно легче HashMap
+        char[] keys = NO_KEYS;
+        Node[] children = NO_CHILDREN;
+        int size;
+        Term term;
+        Term[] top; // null - кэш сброшен
+
+        Node child(char c) {
+            int i = Arrays.binarySearch(keys, 0, size, c);
+            return i >= 0 ? children[i] : null;
+        }
+
+        Node childOrCreate(char c) {
+            int i = Arrays.binarySearch(keys, 0, size, c);
+            if (i >= 0) {
+                return children[i];
+            }
+            i = -i - 1;
+            if (size == keys.length) {
+                int capacity = Math.max(2, size * 2);
+                keys = Arrays.copyOf(keys, capacity);
+                children = Arrays.copyOf(children, capacity);
+            }
+            System.arraycopy(keys, i, keys, i + 1, size - i);
+            System.arraycopy(children, i, children, i + 1, size - i);
+            Node node = new Node();
+            keys[i] = c;
+            children[i] = node;
+            size++;
+            return node;
+        }
+
+        void removeChild(char c) {
+            int i = Arrays.binarySearch(keys, 0, size, c);
+            if (i < 0) {
+                return;
+            }
+            System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+            System.arraycopy(children, i + 1, children, i, size - i - 1);
+            size--;
+            children[size] = null;
+        }
+    }
+}
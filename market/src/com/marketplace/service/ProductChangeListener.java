@@ -0,0 +1,21 @@
+package com.marketplace.service;
+
+import com.marketplace.model.Product;
+
+import java.util.UUID;
+
+/**
+ * Подписка на изменения каталога. Вызывается под блокировкой ProductService
+ * в порядке применения изменений, поэтому обработчик должен быть быстрым.
+ */
+public interface ProductChangeListener {
+
+    /**
+     * Товар добавлен или изменён; p - актуальное состояние.
+     */
+    void onUpsert(Product p);
+
+    void onDelete(UUID id);
+
+    void onClear();
+}
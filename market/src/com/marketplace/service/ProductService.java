@@ -1,16 +1,26 @@
 package com.marketplace.service;
 
 import com.marketplace.model.Product;
+import com.marketplace.model.TermDictionary;
 import com.marketplace.repository.ProductRepository;
+import com.marketplace.search.ProductSearchIndex;
+import com.marketplace.search.Suggestion;
+import com.marketplace.store.InMemoryProductStore;
+import com.marketplace.store.ProductStore;
 
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 public class ProductService {
 
-    private final Map<UUID, Product> products = new HashMap<>();
+    private static final int FUZZY_TERMS_LIMIT = 50;
+
+    private final ProductStore products;
     private final Map<String, List<Product>> cache = new HashMap<>();
+    private final ProductSearchIndex searchIndex = new ProductSearchIndex();
+    private final List<ProductChangeListener> listeners = new CopyOnWriteArrayList<>();
     private final ProductRepository repository;
     private final AuditService auditService;
     private String currentUser = "unknown";
@@ -18,15 +28,36 @@ public class ProductService {
     private int cacheMisses = 0;
 
     public ProductService(ProductRepository repository, AuditService auditService) {
+        this(repository, auditService, new InMemoryProductStore());
+    }
+
+    /**
+     * @param store где держать каталог в памяти; например TieredProductStore для каталогов больше кучи
+     */
+    public ProductService(ProductRepository repository, AuditService auditService, ProductStore store) {
         this.repository = Objects.requireNonNull(repository, "repository must not be null");
         this.auditService = Objects.requireNonNull(auditService, "auditService must not be null");
+        this.products = Objects.requireNonNull(store, "store must not be null");
 
-        List<Product> loaded = repository.loadAll();
-        if (loaded != null) {
-            for (Product p : loaded) {
-                products.put(p.getId(), p);
+        // потоком прямо в хранилище: полный список товаров в куче не собирается
+        repository.loadInto(new ProductRepository.Sink() {
+            @Override
+            public void put(Product p) {
+                upsert(p);
             }
-        }
+
+            @Override
+            public void remove(UUID id) {
+                Product removed = products.remove(id);
+                if (removed != null) {
+                    searchIndex.remove(removed);
+                }
+            }
+        });
+    }
+
+    public void addChangeListener(ProductChangeListener listener) {
+        listeners.add(Objects.requireNonNull(listener, "listener must not be null"));
     }
 
     public void setCurrentUser(String username) {
@@ -38,15 +69,18 @@ public class ProductService {
     public void printStats() {
         System.out.println("Товаров в системе: " + products.size());
         System.out.println("Кэш: попаданий=" + cacheHits + ", промахов=" + cacheMisses);
+        System.out.println("Хранилище товаров: " + products.getStats());
+        System.out.println("Хранилище: " + repository.getStorageInfo());
     }
 
     // --------------------- CRUD ----------------------
 
     public synchronized UUID addProduct(Product p) {
         Objects.requireNonNull(p, "product must not be null");
-        products.put(p.getId(), p);
-        persist();
+        upsert(p);
+        persist(List.of(p), List.of());
         invalidateCache();
+        listeners.forEach(l -> l.onUpsert(p));
         auditService.log(currentUser, "добавил товар: " + p.getName() +" ID: "+p.getId());
         return p.getId();
     }
@@ -54,8 +88,10 @@ public class ProductService {
     public synchronized boolean deleteProduct(UUID id) {
         Product removed = products.remove(id);
         if (removed != null) {
-            persist();
+            searchIndex.remove(removed);
+            persist(List.of(), List.of(id));
             invalidateCache();
+            listeners.forEach(l -> l.onDelete(id));
             auditService.log(currentUser, "удалил товар: " + removed.getName() +" ID: "+removed.getId());
             return true;
         }
@@ -64,21 +100,93 @@ public class ProductService {
 
     public synchronized void deleteAll() {
         products.clear();
+        searchIndex.clear();
         persist();
         invalidateCache();
+        listeners.forEach(ProductChangeListener::onClear);
         auditService.log(currentUser, "очистил каталог");
     }
 
     public synchronized boolean updateProduct(UUID id, ProductUpdater updater) {
         Product existing = products.get(id);
         if (existing == null) return false;
+        String oldName = existing.getName();
+        String oldCategory = existing.getCategory();
+        String oldBrand = existing.getBrand();
         updater.update(existing);
-        persist();
+        // товар мог быть прочитан с холодного уровня - кладём изменённую версию обратно
+        products.put(existing);
+        searchIndex.remove(id, oldName, oldCategory, oldBrand);
+        searchIndex.add(existing);
+        persist(List.of(existing), List.of());
         invalidateCache();
+        listeners.forEach(l -> l.onUpsert(existing));
         auditService.log(currentUser, "обновил товар: " + existing.getName()  +" ID: "+existing.getId());
         return true;
     }
 
+    // --------------------- Репликация ----------------------
+    // Изменения, пришедшие от лидера: без аудита и без уведомления слушателей.
+
+    public synchronized void applyUpsert(Product p) {
+        upsert(p);
+        persist(List.of(p), List.of());
+        invalidateCache();
+    }
+
+    public synchronized void applyDelete(UUID id) {
+        Product removed = products.remove(id);
+        if (removed != null) {
+            searchIndex.remove(removed);
+            persist(List.of(), List.of(id));
+            invalidateCache();
+        }
+    }
+
+    public synchronized void applyClear() {
+        products.clear();
+        searchIndex.clear();
+        persist();
+        invalidateCache();
+    }
+
+    /**
+     * Начало снимка лидера: каталог очищается, товары приходят по одному через
+     * {@link #applySnapshotItem}, сохраняется всё разом в {@link #endSnapshot}.
+     * Пока снимок идёт, поиск видит его часть - для реплики это допустимо.
+     */
+    public synchronized void beginSnapshot() {
+        products.clear();
+        searchIndex.clear();
+        invalidateCache();
+    }
+
+    public synchronized void applySnapshotItem(Product p) {
+        upsert(p);
+    }
+
+    public synchronized void endSnapshot() {
+        persist();
+        invalidateCache();
+    }
+
+    /**
+     * Id всех товаров на момент вызова; хранилище на диске при этом товары не читает.
+     */
+    public synchronized List<UUID> listIds() {
+        return products.ids();
+    }
+
+    /**
+     * Служебное чтение товара (например, для выгрузки снимка репликам): не учитывается
+     * в статистике хранилища и не вытесняет горячие товары.
+     *
+     * @return товар или null, если его уже удалили
+     */
+    public synchronized Product peekProduct(UUID id) {
+        return products.peek(id);
+    }
+
     // --------------------- Поиск и фильтрация ----------------------
 
     public synchronized List<Product> listAll() {
@@ -95,17 +203,19 @@ public class ProductService {
 
     public List<Product> searchByCategory(String category) {
         String key = "category:" + safe(category);
+        int categoryId = TermDictionary.CATEGORIES.find(category);
         return getCachedOrCompute(key, () ->
                 products.values().stream()
-                        .filter(p -> p.getCategory().equalsIgnoreCase(category))
+                        .filter(p -> p.getCategoryId() == categoryId)
                         .collect(Collectors.toList()));
     }
 
     public List<Product> searchByBrand(String brand) {
         String key = "brand:" + safe(brand);
+        int brandId = TermDictionary.BRANDS.find(brand);
         return getCachedOrCompute(key, () ->
                 products.values().stream()
-                        .filter(p -> p.getBrand().equalsIgnoreCase(brand))
+                        .filter(p -> p.getBrandId() == brandId)
                         .collect(Collectors.toList()));
     }
 
@@ -117,9 +227,59 @@ public class ProductService {
                         .collect(Collectors.toList()));
     }
 
+    // --------------------- Подсказки и нечёткий поиск ----------------------
+
+    /**
+     * Автодополнение по названию, бренду и категории: значения, начинающиеся с prefix,
+     * отсортированные по числу товаров.
+     */
+    public List<Suggestion> suggest(String prefix, int limit) {
+        return searchIndex.suggest(prefix, limit);
+    }
+
+    /**
+     * Сколько опечаток допускать в запросе такой длины: в коротком запросе две правки
+     * превращают его почти в любое короткое значение, и подсказки становятся шумом.
+     *
+     * @return 0 для 1-2 символов, 1 для 3-5, 2 для более длинных
+     */
+    public static int maxEditsFor(String query) {
+        int length = query == null ? 0 : query.trim().length();
+        if (length <= 2) {
+            return 0;
+        }
+        return length <= 5 ? 1 : 2;
+    }
+
+    /**
+     * Значения полей, похожие на query с точностью до maxEdits опечаток.
+     */
+    public List<Suggestion> suggestFuzzy(String query, int maxEdits, int limit) {
+        return searchIndex.fuzzy(query, maxEdits, limit);
+    }
+
+    /**
+     * Товары, у которых название, бренд или категория отличаются от query
+     * не более чем на maxEdits правок; ближайшие совпадения первыми.
+     */
+    public synchronized List<Product> fuzzySearch(String query, int maxEdits) {
+        Set<UUID> ids = new LinkedHashSet<>();
+        for (Suggestion s : searchIndex.fuzzy(query, maxEdits, FUZZY_TERMS_LIMIT)) {
+            ids.addAll(searchIndex.productIds(s.getField(), s.getText()));
+        }
+        List<Product> result = new ArrayList<>();
+        for (UUID id : ids) {
+            Product p = products.get(id);
+            if (p != null) {
+                result.add(p);
+            }
+        }
+        return result;
+    }
+
     // --------------------- Универсальный фильтр ----------------------
 
-    public List<Product> filter(Optional<String> name,
+    public synchronized List<Product> filter(Optional<String> name,
                                 Optional<String> category,
                                 Optional<String> brand,
                                 Optional<Double> minPrice,
@@ -131,13 +291,14 @@ public class ProductService {
             String n = name.get().toLowerCase();
             predicate = predicate.and(p -> p.getName().toLowerCase().contains(n));
         }
+        // категория и бренд сравниваются по id словаря, без свёртки регистра на каждый товар
         if (category.isPresent()) {
-            String c = category.get().toLowerCase();
-            predicate = predicate.and(p -> p.getCategory().equalsIgnoreCase(c));
+            int c = TermDictionary.CATEGORIES.find(category.get());
+            predicate = predicate.and(p -> p.getCategoryId() == c);
         }
         if (brand.isPresent()) {
-            String b = brand.get().toLowerCase();
-            predicate = predicate.and(p -> p.getBrand().equalsIgnoreCase(b));
+            int b = TermDictionary.BRANDS.find(brand.get());
+            predicate = predicate.and(p -> p.getBrandId() == b);
         }
         if (minPrice.isPresent()) {
             predicate = predicate.and(p -> p.getPrice() >= minPrice.get());
@@ -153,7 +314,8 @@ public class ProductService {
 
     // --------------------- КЭШ ----------------------
 
-    private List<Product> getCachedOrCompute(String key, SupplierList<Product> supplier) {
+    // synchronized - на реплике каталог меняет поток репликации параллельно с поиском
+    private synchronized List<Product> getCachedOrCompute(String key, SupplierList<Product> supplier) {
         if (cache.containsKey(key)) {
             cacheHits++;
             System.out.println("(из кэша)");
@@ -169,6 +331,16 @@ public class ProductService {
         cache.clear();
     }
 
+    private void upsert(Product p) {
+        // не get: вставка нового товара - не промах кэша, иначе загрузка каталога забила бы статистику
+        Product previous = products.peek(p.getId());
+        if (previous != null) {
+            searchIndex.remove(previous);
+        }
+        products.put(p);
+        searchIndex.add(p);
+    }
+
     private String safe(String s) {
         return s == null ? "" : s.toLowerCase();
     }
@@ -181,6 +353,15 @@ public class ProductService {
         }
     }
 
+    // точечное сохранение: репозиторию не нужно сравнивать весь каталог, чтобы найти изменения
+    private void persist(Collection<Product> changed, Collection<UUID> deleted) {
+        try {
+            repository.saveChanges(changed, deleted, products.values());
+        } catch (Exception e) {
+            System.err.println("Ошибка при сохранении данных: " + e.getMessage());
+        }
+    }
+
     // --------------------- Функциональные интерфейсы ----------------------
 
     @FunctionalInterface
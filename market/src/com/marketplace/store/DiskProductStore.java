@@ -0,0 +1,258 @@
+package com.marketplace.store;
+
+import com.marketplace.model.Product;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Холодный уровень: товары лежат в файле, в куче только индекс id -> (смещение, длина).
+ * <p>
+ * Файл - журнал с дозаписью: перезапись товара добавляет новую запись в конец,
+ * старая становится мусором. Когда мусора больше, чем живых данных, файл
+ * переписывается заново. Файл не является источником истины и очищается
+ * при открытии - за сохранность отвечает ProductRepository.
+ * <p>
+ * Чтение товара - одно позиционное чтение FileChannel, запись - одна запись буфера:
+ * длина хранится в индексе, поэтому заголовок записи читать не нужно.
+ */
+public class DiskProductStore implements ProductStore, Closeable {
+
+    private static final long MIN_COMPACT_BYTES = 4L * 1024 * 1024;
+    // в значении индекса: старшие 40 бит - смещение (до 1 ТБ), младшие 24 - длина тела записи (до 16 МБ)
+    private static final int LENGTH_BITS = 24;
+    private static final int MAX_RECORD = (1 << LENGTH_BITS) - 1;
+
+    private final Path filePath;
+    private final Map<UUID, Long> index = new HashMap<>();
+    private FileChannel channel;
+    private long end = 0;
+    private long liveBytes = 0;
+
+    public DiskProductStore(String path) {
+        this.filePath = Paths.get(path);
+        try {
+            Path parent = filePath.getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            this.channel = FileChannel.open(filePath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось открыть файл холодного хранилища " + filePath, e);
+        }
+    }
+
+    @Override
+    public synchronized Product get(UUID id) {
+        Long entry = index.get(id);
+        if (entry == null) {
+            return null;
+        }
+        try {
+            ByteBuffer body = ByteBuffer.allocate(length(entry));
+            readFully(channel, body, offset(entry) + Integer.BYTES);
+            return ProductCodec.read(new DataInputStream(new ByteArrayInputStream(body.array())));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Ошибка чтения товара " + id + " из " + filePath, e);
+        }
+    }
+
+    @Override
+    public synchronized void put(Product product) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0); // место под длину
+            ProductCodec.write(out, product);
+            int length = bytes.size() - Integer.BYTES;
+            if (length > MAX_RECORD) {
+                throw new IllegalArgumentException("Товар " + product.getId() + " слишком велик для холодного хранилища");
+            }
+            ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+            record.putInt(0, length);
+
+            long offset = end;
+            writeFully(channel, record, offset);
+            end += record.capacity();
+
+            Long old = index.put(product.getId(), entry(offset, length));
+            if (old != null) {
+                liveBytes -= Integer.BYTES + length(old);
+            }
+            liveBytes += record.capacity();
+            compactIfNeeded();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Ошибка записи товара " + product.getId() + " в " + filePath, e);
+        }
+    }
+
+    @Override
+    public synchronized Product remove(UUID id) {
+        Product removed = get(id);
+        if (removed != null) {
+            discard(id);
+        }
+        return removed;
+    }
+
+    /**
+     * Запись не читается: из индекса убирается только ссылка, место освободит сжатие файла.
+     */
+    @Override
+    public synchronized void discard(UUID id) {
+        Long entry = index.remove(id);
+        if (entry == null) {
+            return;
+        }
+        liveBytes -= Integer.BYTES + length(entry);
+        try {
+            compactIfNeeded();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Ошибка удаления товара " + id + " из " + filePath, e);
+        }
+    }
+
+    @Override
+    public synchronized void clear() {
+        try {
+            channel.truncate(0);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Ошибка очистки " + filePath, e);
+        }
+        index.clear();
+        end = 0;
+        liveBytes = 0;
+    }
+
+    @Override
+    public synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * Ленивый обход: товары читаются с диска по одному, в куче копия только списка id.
+     */
+    @Override
+    public Collection<Product> values() {
+        return new AbstractCollection<>() {
+            @Override
+            public Iterator<Product> iterator() {
+                Iterator<UUID> it = ids().iterator();
+                return new Iterator<>() {
+                    private Product next = advance();
+
+                    private Product advance() {
+                        // товар мог быть удалён после снятия списка id - пропускаем
+                        while (it.hasNext()) {
+                            Product p = get(it.next());
+                            if (p != null) {
+                                return p;
+                            }
+                        }
+                        return null;
+                    }
+
+                    @Override
+                    public boolean hasNext() {
+                        return next != null;
+                    }
+
+                    @Override
+                    public Product next() {
+                        if (next == null) {
+                            throw new NoSuchElementException();
+                        }
+                        Product current = next;
+                        next = advance();
+                        return current;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return DiskProductStore.this.size();
+            }
+        };
+    }
+
+    @Override
+    public synchronized List<UUID> ids() {
+        return new ArrayList<>(index.keySet());
+    }
+
+    @Override
+    public synchronized String getStats() {
+        return String.format("на диске: %d, файл: %d КБ (живых данных: %d КБ)",
+                index.size(), end / 1024, liveBytes / 1024);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    private static long entry(long offset, int length) {
+        return (offset << LENGTH_BITS) | length;
+    }
+
+    private static long offset(long entry) {
+        return entry >>> LENGTH_BITS;
+    }
+
+    private static int length(long entry) {
+        return (int) (entry & MAX_RECORD);
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, position + buf.position());
+            if (n < 0) {
+                throw new EOFException("Запись обрезана: " + position);
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            ch.write(buf, position + buf.position());
+        }
+    }
+
+    private void compactIfNeeded() throws IOException {
+        long garbage = end - liveBytes;
+        if (garbage < MIN_COMPACT_BYTES || garbage < liveBytes) {
+            return;
+        }
+
+        Path tmp = filePath.resolveSibling(filePath.getFileName() + ".compact");
+        Map<UUID, Long> newIndex = new HashMap<>(index.size() * 2);
+        long offset = 0;
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+            for (Map.Entry<UUID, Long> e : index.entrySet()) {
+                int length = length(e.getValue());
+                ByteBuffer record = ByteBuffer.allocate(Integer.BYTES + length);
+                readFully(channel, record, offset(e.getValue()));
+                out.write(record.array());
+                newIndex.put(e.getKey(), entry(offset, length));
+                offset += record.capacity();
+            }
+        }
+
+        channel.close();
+        Files.move(tmp, filePath, StandardCopyOption.REPLACE_EXISTING);
+        channel = FileChannel.open(filePath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        index.clear();
+        index.putAll(newIndex);
+        end = offset;
+        liveBytes = offset;
+    }
+}
@@ -0,0 +1,48 @@
+package com.marketplace.store;
+
+import com.marketplace.model.Product;
+
+import java.util.*;
+
+/**
+ * Весь каталог в HashMap - прежнее поведение ProductService.
+ */
+public class InMemoryProductStore implements ProductStore {
+
+    private final Map<UUID, Product> products = new HashMap<>();
+
+    @Override
+    public Product get(UUID id) {
+        return products.get(id);
+    }
+
+    @Override
+    public void put(Product product) {
+        products.put(product.getId(), product);
+    }
+
+    @Override
+    public Product remove(UUID id) {
+        return products.remove(id);
+    }
+
+    @Override
+    public void clear() {
+        products.clear();
+    }
+
+    @Override
+    public int size() {
+        return products.size();
+    }
+
+    @Override
+    public Collection<Product> values() {
+        return products.values();
+    }
+
+    @Override
+    public List<UUID> ids() {
+        return new ArrayList<>(products.keySet());
+    }
+}
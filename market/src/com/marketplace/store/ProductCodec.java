@@ -0,0 +1,43 @@
+package com.marketplace.store;
+
+import com.marketplace.model.Product;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Компактная бинарная запись товара. В отличие от Java-serialization
+ * не пишет описание класса в каждую запись.
+ */
+public final class ProductCodec {
+
+    private ProductCodec() {
+    }
+
+    public static void write(DataOutput out, Product p) throws IOException {
+        out.writeLong(p.getId().getMostSignificantBits());
+        out.writeLong(p.getId().getLeastSignificantBits());
+        out.writeUTF(p.getName());
+        out.writeUTF(p.getCategory());
+        out.writeUTF(p.getBrand());
+        out.writeDouble(p.getPrice());
+        out.writeLong(p.getCreatedAt().getEpochSecond());
+        out.writeInt(p.getCreatedAt().getNano());
+        out.writeLong(p.getUpdatedAt().getEpochSecond());
+        out.writeInt(p.getUpdatedAt().getNano());
+    }
+
+    public static Product read(DataInput in) throws IOException {
+        UUID id = new UUID(in.readLong(), in.readLong());
+        String name = in.readUTF();
+        String category = in.readUTF();
+        String brand = in.readUTF();
+        double price = in.readDouble();
+        Instant createdAt = Instant.ofEpochSecond(in.readLong(), in.readInt());
+        Instant updatedAt = Instant.ofEpochSecond(in.readLong(), in.readInt());
+        return new Product(id, name, category, brand, price, createdAt, updatedAt);
+    }
+}
@@ -0,0 +1,64 @@
+package com.marketplace.store;
+
+import com.marketplace.model.Product;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Хранилище товаров в памяти сервиса, ключ - id товара.
+ * Реализации могут держать в куче только часть каталога.
+ */
+public interface ProductStore {
+
+    Product get(UUID id);
+
+    /**
+     * Служебное чтение - например, прежней версии перед перезаписью.
+     * В отличие от {@link #get}, не попадает в статистику и не поднимает товар в кэш.
+     */
+    default Product peek(UUID id) {
+        return get(id);
+    }
+
+    /**
+     * Вставка или перезапись. После изменения товара на месте его нужно положить заново,
+     * иначе изменения не дойдут до нижних уровней хранилища.
+     */
+    void put(Product product);
+
+    Product remove(UUID id);
+
+    /**
+     * Удаление, когда удалённый товар не нужен: хранилищу на диске не приходится его читать.
+     */
+    default void discard(UUID id) {
+        remove(id);
+    }
+
+    void clear();
+
+    int size();
+
+    /**
+     * Все товары. Для хранилищ на диске это ленивый обход, а не копия в памяти.
+     */
+    Collection<Product> values();
+
+    /**
+     * Копия списка id - без чтения самих товаров.
+     */
+    default List<UUID> ids() {
+        List<UUID> ids = new ArrayList<>(size());
+        for (Product p : values()) {
+            ids.add(p.getId());
+        }
+        return ids;
+    }
+
+    default String getStats() {
+        return "товаров: " + size();
+    }
+}
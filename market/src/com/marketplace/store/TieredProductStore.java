@@ -0,0 +1,123 @@
+package com.marketplace.store;
+
+import com.marketplace.model.Product;
+
+import java.util.*;
+
+/**
+ * Двухуровневое хранилище: горячие товары в ограниченном LRU-кэше в куче,
+ * весь каталог - в холодном уровне (обычно {@link DiskProductStore}).
+ * <p>
+ * Чтение сквозное: промах в кэше читает товар из холодного уровня и поднимает его наверх.
+ * Запись сквозная: каждый put сразу уходит в холодный уровень, поэтому вытеснение
+ * из кэша ничего не пишет и холодный уровень всегда актуален.
+ */
+public class TieredProductStore implements ProductStore {
+
+    private final Map<UUID, Product> hot;
+    private final ProductStore cold;
+    private final int hotCapacity;
+    private long hotHits = 0;
+    private long coldHits = 0;
+    private long misses = 0;
+
+    public TieredProductStore(int hotCapacity, ProductStore cold) {
+        if (hotCapacity < 1) {
+            throw new IllegalArgumentException("hotCapacity must be positive");
+        }
+        this.hotCapacity = hotCapacity;
+        this.cold = cold;
+        // accessOrder = true - порядок обхода от давно использованных к недавним
+        this.hot = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, Product> eldest) {
+                return size() > TieredProductStore.this.hotCapacity;
+            }
+        };
+    }
+
+    @Override
+    public synchronized Product get(UUID id) {
+        Product p = hot.get(id);
+        if (p != null) {
+            hotHits++;
+            return p;
+        }
+        p = cold.get(id);
+        if (p == null) {
+            misses++;
+            return null;
+        }
+        coldHits++;
+        hot.put(id, p);
+        return p;
+    }
+
+    @Override
+    public synchronized Product peek(UUID id) {
+        Product p = hot.get(id);
+        return p != null ? p : cold.peek(id);
+    }
+
+    @Override
+    public synchronized void put(Product product) {
+        cold.put(product);
+        hot.put(product.getId(), product);
+    }
+
+    @Override
+    public synchronized Product remove(UUID id) {
+        Product fromHot = hot.remove(id);
+        if (fromHot != null) {
+            // товар уже есть в кэше - холодную запись читать незачем
+            cold.discard(id);
+            return fromHot;
+        }
+        return cold.remove(id);
+    }
+
+    @Override
+    public synchronized void discard(UUID id) {
+        hot.remove(id);
+        cold.discard(id);
+    }
+
+    @Override
+    public synchronized void clear() {
+        hot.clear();
+        cold.clear();
+    }
+
+    @Override
+    public synchronized int size() {
+        return cold.size();
+    }
+
+    /**
+     * Полный обход идёт по холодному уровню: он актуален благодаря сквозной записи,
+     * а обход горячего кэша перемешал бы LRU-порядок и вытеснил бы реально горячие товары.
+     */
+    @Override
+    public Collection<Product> values() {
+        return cold.values();
+    }
+
+    @Override
+    public List<UUID> ids() {
+        return cold.ids();
+    }
+
+    @Override
+    public synchronized String getStats() {
+        long total = hotHits + coldHits + misses;
+        return String.format("в кэше: %d/%d, попаданий в кэш: %d (%.1f%%), чтений с холодного уровня: %d (%.1f%%), промахов: %d; %s",
+                hot.size(), hotCapacity,
+                hotHits, percent(hotHits, total),
+                coldHits, percent(coldHits, total),
+                misses, cold.getStats());
+    }
+
+    private static double percent(long part, long total) {
+        return total == 0 ? 0.0 : part * 100.0 / total;
+    }
+}
@@ -0,0 +1,414 @@
+package com.marketplace.replication;
+
+import com.marketplace.model.Product;
+import com.marketplace.repository.InMemoryProductRepository;
+import com.marketplace.service.AuditService;
+import com.marketplace.service.ProductService;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Репликация на нескольких JVM. Без JUnit - запускается через main:
+ * <pre>
+ *   javac -encoding UTF-8 -d out market/src/com/marketplace/**&#47;*.java market/test/com/marketplace/**&#47;*.java
+ *   java -cp out com.marketplace.replication.ReplicationTest
+ * </pre>
+ * Лидер и две реплики - отдельные JVM; родитель шлёт лидеру команды через stdin и сравнивает
+ * отпечатки каталогов (CRC всех товаров по id). Между каждой репликой и лидером стоит прокси
+ * в родителе: обрыв его соединений - это потеря связи без потери состояния реплики.
+ * Код выхода 1, если хоть одна проверка не прошла.
+ */
+public class ReplicationTest {
+
+    private static final Instant BASE_TIME = Instant.ofEpochSecond(1_700_000_000L);
+    private static final long CONVERGE_MILLIS = 15_000;
+    private static final String REPLY = "@@ ";
+
+    private static int failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("leader")) {
+            runLeader(Integer.parseInt(args[1]));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("follower")) {
+            runFollower(Integer.parseInt(args[1]));
+            return;
+        }
+
+        Path root = Files.createTempDirectory("replication-test");
+        int leaderPort = freePort();
+        List<Child> followers = new ArrayList<>();
+        List<Proxy> proxies = new ArrayList<>();
+        Child leader = Child.start(root, "leader", leaderPort);
+        try {
+            for (int i = 1; i <= 2; i++) {
+                Proxy proxy = new Proxy(leaderPort);
+                proxies.add(proxy);
+                followers.add(Child.start(root, "follower", proxy.port()));
+            }
+
+            mutationsConverge(leader, followers);
+            clearConverges(leader, followers);
+            catchUpFromLog(leader, followers, proxies.get(0));
+            leader = snapshotAfterLeaderRestart(root, leader, leaderPort, followers);
+        } finally {
+            leader.stop();
+            followers.forEach(Child::stop);
+            proxies.forEach(Proxy::close);
+        }
+
+        if (failures > 0) {
+            System.out.println("ПРОВАЛЕНО проверок: " + failures + ", логи процессов в " + root);
+            System.exit(1);
+        }
+        deleteTree(root);
+        System.out.println("Все проверки пройдены");
+    }
+
+    // --------------------- Сценарии ----------------------
+
+    private static void mutationsConverge(Child leader, List<Child> followers) throws Exception {
+        int failuresBefore = failures;
+        String name = "добавление, изменение и удаление";
+        leader.call("add 0 200 0");
+        leader.call("update 10 1");
+        leader.call("update 11 1");
+        leader.call("delete 12");
+        leader.call("delete 199");
+        awaitConverged(name, leader, followers);
+        for (Child f : followers) {
+            check(f.stat("snapshots") == 1, name + ": реплика получила не один снимок, а " + f.stat("snapshots"));
+        }
+        report(name, failuresBefore);
+    }
+
+    private static void clearConverges(Child leader, List<Child> followers) throws Exception {
+        int failuresBefore = failures;
+        String name = "очистка каталога";
+        leader.call("clear");
+        awaitConverged(name + " (пустой каталог)", leader, followers);
+        leader.call("add 500 50 2");
+        awaitConverged(name + " (после новых товаров)", leader, followers);
+        report(name, failuresBefore);
+    }
+
+    /**
+     * Связь с репликой рвётся, лидер тем временем пишет изменения; реплика той же эпохи
+     * должна догнать их из журнала лидера, не запрашивая снимок.
+     */
+    private static void catchUpFromLog(Child leader, List<Child> followers, Proxy proxy) throws Exception {
+        int failuresBefore = failures;
+        String name = "дозаливка из журнала после обрыва связи";
+        Child follower = followers.get(0);
+        long reconnectsBefore = follower.stat("reconnects");
+        proxy.cut();
+        leader.call("add 600 30 3");
+        leader.call("update 500 4");
+        leader.call("delete 501");
+        awaitConverged(name, leader, followers);
+        check(follower.stat("reconnects") > reconnectsBefore, name + ": реплика не переподключалась");
+        check(follower.stat("snapshots") == 1, name + ": вместо дозаливки реплика получила снимок");
+        report(name, failuresBefore);
+    }
+
+    /**
+     * Новый процесс лидера - новая эпоха: seq реплик с ним несравнимы, нужен полный снимок.
+     */
+    private static Child snapshotAfterLeaderRestart(Path root, Child leader, int port, List<Child> followers) throws Exception {
+        int failuresBefore = failures;
+        String name = "снимок после перезапуска лидера";
+        leader.kill();
+        Child restarted = Child.start(root, "leader", port);
+        restarted.call("add 1000 70 5");
+        restarted.call("update 1001 6");
+        awaitConverged(name, restarted, followers);
+        for (Child f : followers) {
+            check(f.stat("snapshots") == 2, name + ": ожидался второй снимок, получено снимков: " + f.stat("snapshots"));
+        }
+        report(name, failuresBefore);
+        return restarted;
+    }
+
+    private static void awaitConverged(String name, Child leader, List<Child> followers) throws Exception {
+        String expected = leader.call("digest");
+        long deadline = System.currentTimeMillis() + CONVERGE_MILLIS;
+        List<String> actual = new ArrayList<>();
+        while (System.currentTimeMillis() < deadline) {
+            actual.clear();
+            for (Child f : followers) {
+                actual.add(f.call("digest"));
+            }
+            if (actual.stream().allMatch(expected::equals)) {
+                return;
+            }
+            Thread.sleep(100);
+        }
+        check(false, name + ": реплики не сошлись с лидером за " + CONVERGE_MILLIS + " мс: " + actual + " вместо " + expected);
+    }
+
+    // --------------------- Дочерние процессы ----------------------
+
+    /**
+     * Команды: {@code add <первый номер> <сколько> <версия>}, {@code update <номер> <версия>},
+     * {@code delete <номер>}, {@code clear}, {@code digest}. На каждую - ответ с отпечатком каталога.
+     */
+    private static void runLeader(int port) throws IOException {
+        ProductService service = new ProductService(new InMemoryProductRepository(), new AuditService());
+        ReplicationLeader leader = new ReplicationLeader(service, port);
+        leader.start();
+        reply("READY");
+
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        for (String line; (line = in.readLine()) != null; ) {
+            String[] cmd = line.split(" ");
+            switch (cmd[0]) {
+                case "add" -> {
+                    int from = Integer.parseInt(cmd[1]);
+                    for (int i = from; i < from + Integer.parseInt(cmd[2]); i++) {
+                        service.addProduct(product(i, Integer.parseInt(cmd[3])));
+                    }
+                }
+                case "update" -> {
+                    int version = Integer.parseInt(cmd[2]);
+                    service.updateProduct(id(Integer.parseInt(cmd[1])), p -> {
+                        p.setName(p.getName() + " v" + version);
+                        p.setBrand("Brand" + version);
+                        p.setPrice(p.getPrice() + version);
+                    });
+                }
+                case "delete" -> service.deleteProduct(id(Integer.parseInt(cmd[1])));
+                case "clear" -> service.deleteAll();
+                default -> { }
+            }
+            reply(digest(service));
+        }
+        leader.close();
+    }
+
+    /**
+     * Команды: {@code digest} - отпечаток каталога, {@code snapshots}, {@code reconnects} - метрики реплики.
+     */
+    private static void runFollower(int port) throws IOException {
+        ProductService service = new ProductService(new InMemoryProductRepository(), new AuditService());
+        ReplicationFollower follower = new ReplicationFollower(service, "127.0.0.1", port);
+        follower.start();
+        reply("READY");
+
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        for (String line; (line = in.readLine()) != null; ) {
+            switch (line) {
+                case "snapshots" -> reply(String.valueOf(follower.getSnapshotsLoaded()));
+                case "reconnects" -> reply(String.valueOf(follower.getReconnects()));
+                default -> reply(digest(service));
+            }
+        }
+        follower.close();
+    }
+
+    // ProductService и AuditService тоже пишут в stdout - ответы помечены префиксом
+    private static void reply(String text) {
+        System.out.println(REPLY + text);
+        System.out.flush();
+    }
+
+    private static String digest(ProductService service) {
+        List<Product> products = service.listAll();
+        products.sort(Comparator.comparing(Product::getId));
+        CRC32 crc = new CRC32();
+        for (Product p : products) {
+            String line = p.getId() + "|" + p.getName() + "|" + p.getCategory() + "|" + p.getBrand() + "|" + p.getPrice() + "\n";
+            crc.update(line.getBytes(StandardCharsets.UTF_8));
+        }
+        return products.size() + ":" + Long.toHexString(crc.getValue());
+    }
+
+    private static UUID id(int i) {
+        return new UUID(0x4E91L, i);
+    }
+
+    private static Product product(int i, int version) {
+        return new Product(id(i), "Product " + i + " v" + version, "Category" + (i % 7), "Brand" + (i % 11),
+                i + version / 100.0, BASE_TIME, BASE_TIME.plusSeconds(version));
+    }
+
+    private static final class Child {
+        final String role;
+        final Process process;
+        final BufferedReader out;
+        final Writer in;
+
+        private Child(String role, Process process) {
+            this.role = role;
+            this.process = process;
+            this.out = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+            this.in = new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8);
+        }
+
+        static Child start(Path root, String role, int port) throws IOException {
+            String java = ProcessHandle.current().info().command().orElse("java");
+            // рабочий каталог - временный: AuditService пишет logs/ относительно него
+            Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    ReplicationTest.class.getName(), role, String.valueOf(port))
+                    .directory(root.toFile())
+                    .redirectError(root.resolve(role + "-" + port + ".err").toFile())
+                    .start();
+            Child child = new Child(role, process);
+            child.read();
+            return child;
+        }
+
+        synchronized String call(String command) throws IOException {
+            in.write(command + "\n");
+            in.flush();
+            return read();
+        }
+
+        long stat(String name) throws IOException {
+            return Long.parseLong(call(name));
+        }
+
+        private String read() throws IOException {
+            for (String line; (line = out.readLine()) != null; ) {
+                if (line.startsWith(REPLY)) {
+                    return line.substring(REPLY.length());
+                }
+            }
+            throw new EOFException(role + " завершился");
+        }
+
+        void kill() throws InterruptedException {
+            process.destroyForcibly();
+            process.waitFor();
+        }
+
+        void stop() {
+            try {
+                in.close();
+                if (!process.waitFor(5, java.util.concurrent.TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
+                }
+            } catch (IOException | InterruptedException e) {
+                process.destroyForcibly();
+            }
+        }
+    }
+
+    // --------------------- Прокси ----------------------
+
+    /**
+     * TCP-прокси до лидера. {@link #cut()} рвёт текущие соединения, новые принимаются как обычно.
+     */
+    private static final class Proxy implements Closeable {
+        private final ServerSocket server;
+        private final int target;
+        private final List<Socket> open = new ArrayList<>();
+
+        Proxy(int target) throws IOException {
+            this.target = target;
+            this.server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+            Thread acceptor = new Thread(this::acceptLoop, "proxy-" + server.getLocalPort());
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        int port() {
+            return server.getLocalPort();
+        }
+
+        private void acceptLoop() {
+            while (!server.isClosed()) {
+                try {
+                    Socket client = server.accept();
+                    Socket upstream;
+                    try {
+                        upstream = new Socket(InetAddress.getLoopbackAddress(), target);
+                    } catch (IOException e) {
+                        client.close(); // лидер недоступен - реплика попробует позже
+                        continue;
+                    }
+                    synchronized (open) {
+                        open.add(client);
+                        open.add(upstream);
+                    }
+                    pipe(client, upstream);
+                    pipe(upstream, client);
+                } catch (IOException e) {
+                    // прокси закрыт
+                }
+            }
+        }
+
+        private static void pipe(Socket from, Socket to) {
+            Thread t = new Thread(() -> {
+                try {
+                    from.getInputStream().transferTo(to.getOutputStream());
+                } catch (IOException ignore) {
+                    // соединение разорвано
+                }
+                closeQuietly(from);
+                closeQuietly(to);
+            });
+            t.setDaemon(true);
+            t.start();
+        }
+
+        void cut() {
+            synchronized (open) {
+                open.forEach(Proxy::closeQuietly);
+                open.clear();
+            }
+        }
+
+        @Override
+        public void close() {
+            cut();
+            closeQuietly(server);
+        }
+
+        private static void closeQuietly(Closeable c) {
+            try {
+                c.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+    // --------------------- Вспомогательное ----------------------
+
+    private static int freePort() throws IOException {
+        try (ServerSocket s = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            return s.getLocalPort();
+        }
+    }
+
+    private static void deleteTree(Path root) throws IOException {
+        try (Stream<Path> files = Files.walk(root)) {
+            List<Path> paths = files.sorted(Comparator.reverseOrder()).toList();
+            for (Path p : paths) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            failures++;
+            System.out.println("  FAIL " + message);
+        }
+    }
+
+    private static void report(String name, int failuresBefore) {
+        System.out.println("  " + (failures == failuresBefore ? "ok  " : "FAIL") + " " + name);
+    }
+}
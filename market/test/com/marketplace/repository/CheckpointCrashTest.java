@@ -0,0 +1,398 @@
+package com.marketplace.repository;
+
+import com.marketplace.model.Product;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Проверка восстановления CheckpointProductRepository после сбоев. Без JUnit - запускается через main:
+ * <pre>
+ *   javac -encoding UTF-8 -d out market/src/com/marketplace/**&#47;*.java market/test/com/marketplace/**&#47;*.java
+ *   java -cp out com.marketplace.repository.CheckpointCrashTest [число товаров, по умолчанию 100000]
+ * </pre>
+ * Каталог на каждом шаге детерминирован, поэтому после восстановления сравнивается точное содержимое.
+ * Код выхода 1, если хоть одна проверка не прошла.
+ */
+public class CheckpointCrashTest {
+
+    private static final Instant BASE_TIME = Instant.ofEpochSecond(1_700_000_000L);
+    private static final int WRITER_STEPS = 30;
+
+    private static int failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("writer")) {
+            runWriter(Paths.get(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+            return;
+        }
+
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        Path root = Files.createTempDirectory("checkpoint-crash-test");
+        System.out.println("Товаров: " + n + ", каталог: " + root);
+
+        for (int killAfter = 1; killAfter <= 3; killAfter++) {
+            killWriterMidSave(root.resolve("kill-" + killAfter), n, killAfter);
+        }
+        corruptedDelta(root.resolve("corrupt-delta"), n);
+        corruptedSnapshot(root.resolve("corrupt-snapshot"), n);
+        strayTempFiles(root.resolve("stray-tmp"), n);
+        failedSnapshotAfterClear(root.resolve("failed-clear"), n);
+        backgroundSnapshot(root.resolve("background-snapshot"), n);
+
+        if (failures > 0) {
+            // сегменты оставляем для разбора
+            System.out.println("ПРОВАЛЕНО проверок: " + failures + ", сегменты сохранены в " + root);
+            System.exit(1);
+        }
+        deleteTree(root);
+        System.out.println("Все проверки пройдены");
+    }
+
+    // --------------------- Сценарии ----------------------
+
+    /**
+     * Дочерняя JVM пишет чекпойнты, родитель убивает её, пока на диске лежит недописанный .tmp сегмент.
+     */
+    private static void killWriterMidSave(Path dir, int n, int killAfter) throws Exception {
+        int failuresBefore = failures;
+        String name = "kill -9 внутри writeSegment после чекпойнта #" + killAfter;
+        String java = ProcessHandle.current().info().command().orElse("java");
+        Process child = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                CheckpointCrashTest.class.getName(), "writer", dir.toString(), String.valueOf(n), String.valueOf(WRITER_STEPS))
+                .redirectErrorStream(true)
+                .start();
+
+        int[] committed = {-1};
+        Thread reader = new Thread(() -> {
+            try (BufferedReader out = new BufferedReader(new InputStreamReader(child.getInputStream()))) {
+                String line;
+                while ((line = out.readLine()) != null) {
+                    if (line.startsWith("COMMITTED ")) {
+                        synchronized (committed) {
+                            committed[0] = Integer.parseInt(line.substring("COMMITTED ".length()));
+                        }
+                    }
+                }
+            } catch (IOException ignore) {
+                // процесс убит
+            }
+        });
+        reader.start();
+
+        boolean killedInWrite = false;
+        while (child.isAlive()) {
+            int done;
+            synchronized (committed) {
+                done = committed[0];
+            }
+            if (done >= killAfter && hasTempFile(dir)) {
+                child.destroyForcibly();
+                killedInWrite = true;
+                break;
+            }
+            Thread.sleep(1);
+        }
+        child.waitFor();
+        reader.join();
+        check(killedInWrite, name + ": писатель завершился раньше, чем удалось поймать запись");
+        if (!killedInWrite) {
+            return;
+        }
+
+        int last = committed[0];
+        CheckpointProductRepository repo = new CheckpointProductRepository(dir.toString(), null);
+        List<Product> recovered = repo.loadAll();
+        // шаг, на котором убили, мог успеть пройти rename, но не успеть напечатать COMMITTED
+        boolean atLast = sameCatalog(expected(last, n), recovered);
+        boolean atNext = !atLast && sameCatalog(expected(last + 1, n), recovered);
+        check(atLast || atNext, name + ": восстановленный каталог не совпал ни с шагом " + last + ", ни с " + (last + 1));
+        check(repo.getLastSeq() == (atNext ? last + 2 : last + 1), name + ": неожиданный seq " + repo.getLastSeq());
+        check(!hasTempFile(dir), name + ": .tmp не удалён при восстановлении");
+        report(name + " (восстановлен шаг " + (atNext ? last + 1 : last) + ")", repo, failuresBefore);
+    }
+
+    private static void corruptedDelta(Path dir, int n) throws Exception {
+        int failuresBefore = failures;
+        String name = "битый байт в дельте";
+        writeSteps(dir, n, 2); // snapshot #1, delta #2, delta #3
+        Path delta = segment(dir, "delta-", 2);
+        flipByte(delta);
+
+        CheckpointProductRepository repo = new CheckpointProductRepository(dir.toString(), null);
+        List<Product> recovered = repo.loadAll();
+        check(sameCatalog(expected(0, n), recovered), name + ": ожидался каталог снимка #1");
+        check(repo.getLastSeq() == 1, name + ": неожиданный seq " + repo.getLastSeq());
+        check(Files.exists(Paths.get(delta + ".broken")), name + ": delta #2 не отложена в .broken");
+        check(Files.exists(Paths.get(segment(dir, "delta-", 3) + ".broken")), name + ": delta #3 не отложена в .broken");
+        check(!Files.exists(delta), name + ": битая дельта осталась под рабочим именем");
+        report(name, repo, failuresBefore);
+    }
+
+    private static void corruptedSnapshot(Path dir, int n) throws Exception {
+        String name = "битый байт в снимке";
+        writeSteps(dir, n, 1); // snapshot #1, delta #2
+        flipByte(segment(dir, "snapshot-", 1));
+
+        try {
+            new CheckpointProductRepository(dir.toString(), null).loadAll();
+            check(false, name + ": восстановление без целого снимка должно падать, а не отдавать пустой каталог");
+        } catch (IllegalStateException expected) {
+            System.out.println("  ok  " + name + ": " + expected.getMessage());
+        }
+        check(Files.exists(segment(dir, "delta-", 2)), name + ": дельта не должна трогаться, если не с чем её применить");
+    }
+
+    private static void strayTempFiles(Path dir, int n) throws Exception {
+        int failuresBefore = failures;
+        String name = "лишние .tmp после сбоя";
+        writeSteps(dir, n, 2);
+        Path strayDelta = Paths.get(segment(dir, "delta-", 4) + ".tmp");
+        Path straySnapshot = Paths.get(segment(dir, "snapshot-", 4) + ".tmp");
+        Files.write(strayDelta, new byte[]{1, 2, 3});
+        Files.write(straySnapshot, new byte[0]);
+
+        CheckpointProductRepository repo = new CheckpointProductRepository(dir.toString(), null);
+        List<Product> recovered = repo.loadAll();
+        check(sameCatalog(expected(2, n), recovered), name + ": ожидался каталог шага 2");
+        check(repo.getLastSeq() == 3, name + ": неожиданный seq " + repo.getLastSeq());
+        check(!Files.exists(strayDelta) && !Files.exists(straySnapshot), name + ": .tmp не удалены");
+
+        // следующий чекпойнт занимает освободившийся номер
+        Step next = step(3, n);
+        repo.saveChanges(next.changed, next.deleted, expected(3, n).values());
+        check(repo.getLastSeq() == 4, name + ": новый чекпойнт не получил seq 4");
+        check(sameCatalog(expected(3, n), new CheckpointProductRepository(dir.toString(), null).loadAll()),
+                name + ": после дозаписи ожидался каталог шага 3");
+        report(name, repo, failuresBefore);
+    }
+
+    /**
+     * Очистка каталога пишет полный снимок; если он не записался (ProductService только логирует ошибку),
+     * следующее изменение не должно лечь дельтой поверх снимка до очистки.
+     */
+    private static void failedSnapshotAfterClear(Path dir, int n) throws Exception {
+        int failuresBefore = failures;
+        String name = "снимок очистки не записался";
+        CheckpointProductRepository repo = writeSteps(dir, n, 2);
+        // каталог на месте .tmp - FileOutputStream не откроется, writeSegment удалит пустой каталог и бросит IOException
+        Path blocker = Paths.get(segment(dir, "snapshot-", repo.getLastSeq() + 1) + ".tmp");
+        Files.createDirectory(blocker);
+        try {
+            repo.saveAll(Collections.emptyList());
+            check(false, name + ": запись снимка должна была упасть");
+        } catch (UncheckedIOException expected) {
+            // так и задумано
+        }
+
+        Product added = product(n, 0);
+        repo.saveChanges(List.of(added), List.of(), List.of(added));
+        List<Product> recovered = new CheckpointProductRepository(dir.toString(), null).loadAll();
+        check(sameCatalog(Map.of(added.getId(), added), recovered),
+                name + ": ожидался 1 товар после очистки, восстановлено " + recovered.size());
+        check(Files.exists(segment(dir, "snapshot-", 4)), name + ": после сбоя должен был записаться полный снимок #4");
+        report(name, repo, failuresBefore);
+    }
+
+    /**
+     * Снимок, собранный в фоне из снимка и дельт, должен совпасть с каталогом, включая повторно
+     * добавленный после удаления товар и товар, изменённый в нескольких дельтах.
+     */
+    private static void backgroundSnapshot(Path dir, int n) throws Exception {
+        int failuresBefore = failures;
+        String name = "снимок собран в фоне";
+        CheckpointProductRepository repo = writeSteps(dir, n, 2);
+        Map<UUID, Product> catalog = expected(2, n);
+
+        Step special = new Step();
+        special.changed.add(product(n - 1, 7)); // удалён на шаге 1
+        special.changed.add(product(0, 9));     // изменён на шаге 1
+        special.deleted.add(id(1));             // изменён на шаге 1
+        special.applyTo(catalog);
+        repo.saveChanges(special.changed, special.deleted, catalog.values());
+
+        // дельта, после которой записей в дельтах становится больше четверти каталога
+        Step big = new Step();
+        for (int i = 2; i < Math.max(n / 4 + 1, 1025); i++) {
+            big.changed.add(product(i, 8));
+        }
+        big.applyTo(catalog);
+        repo.saveChanges(big.changed, big.deleted, catalog.values());
+        long last = repo.getLastSeq();
+        repo.awaitSnapshot();
+
+        check(Files.exists(segment(dir, "snapshot-", last)), name + ": снимок #" + last + " не появился");
+        check(!Files.exists(segment(dir, "snapshot-", 1)), name + ": старый снимок #1 не удалён");
+        for (long seq = 2; seq <= last; seq++) {
+            check(!Files.exists(segment(dir, "delta-", seq)), name + ": дельта #" + seq + " не удалена");
+        }
+        CheckpointProductRepository recoveredRepo = new CheckpointProductRepository(dir.toString(), null);
+        check(sameCatalog(catalog, recoveredRepo.loadAll()), name + ": каталог из фонового снимка не совпал");
+        check(recoveredRepo.getLastSeq() == last, name + ": неожиданный seq " + recoveredRepo.getLastSeq());
+        report(name, recoveredRepo, failuresBefore);
+    }
+
+    // --------------------- Писатель ----------------------
+
+    private static void runWriter(Path dir, int n, int steps) {
+        CheckpointProductRepository repo = new CheckpointProductRepository(dir.toString(), null);
+        repo.loadAll();
+        Map<UUID, Product> catalog = new LinkedHashMap<>();
+        for (int k = 0; k <= steps; k++) {
+            Step s = step(k, n);
+            s.applyTo(catalog);
+            if (k == 0) {
+                repo.saveAll(catalog.values());
+            } else {
+                repo.saveChanges(s.changed, s.deleted, catalog.values());
+            }
+            System.out.println("COMMITTED " + k);
+            System.out.flush();
+        }
+    }
+
+    private static CheckpointProductRepository writeSteps(Path dir, int n, int lastStep) throws IOException {
+        Files.createDirectories(dir);
+        CheckpointProductRepository repo = new CheckpointProductRepository(dir.toString(), null);
+        repo.loadAll();
+        Map<UUID, Product> catalog = new LinkedHashMap<>();
+        for (int k = 0; k <= lastStep; k++) {
+            Step s = step(k, n);
+            s.applyTo(catalog);
+            if (k == 0) {
+                repo.saveAll(catalog.values());
+            } else {
+                repo.saveChanges(s.changed, s.deleted, catalog.values());
+            }
+        }
+        return repo;
+    }
+
+    // --------------------- Детерминированный каталог ----------------------
+
+    /**
+     * Шаг 0 - n товаров; шаг k - новая версия очередной десятой части каталога и удаление одного товара.
+     * Дельты по n/10 записей: писатель большую часть времени находится внутри writeSegment,
+     * а каждые три-четыре дельты фоновый поток собирает полный снимок.
+     */
+    private static Step step(int k, int n) {
+        Step s = new Step();
+        if (k == 0) {
+            for (int i = 0; i < n; i++) {
+                s.changed.add(product(i, 0));
+            }
+            return s;
+        }
+        int batch = Math.max(1, n / 10);
+        int from = ((k - 1) * batch) % n;
+        for (int i = from; i < Math.min(n, from + batch); i++) {
+            if (i != n - k) {
+                s.changed.add(product(i, k));
+            }
+        }
+        if (n - k >= 0) {
+            s.deleted.add(id(n - k));
+        }
+        return s;
+    }
+
+    private static Map<UUID, Product> expected(int lastStep, int n) {
+        Map<UUID, Product> catalog = new LinkedHashMap<>();
+        for (int k = 0; k <= lastStep; k++) {
+            step(k, n).applyTo(catalog);
+        }
+        return catalog;
+    }
+
+    private static UUID id(int i) {
+        return new UUID(0x5EEDL, i);
+    }
+
+    private static Product product(int i, int version) {
+        return new Product(id(i), "Product " + i + " v" + version, "Category" + (i % 20), "Brand" + (i % 50),
+                i + version / 100.0, BASE_TIME, BASE_TIME.plusSeconds(version));
+    }
+
+    private static final class Step {
+        final List<Product> changed = new ArrayList<>();
+        final List<UUID> deleted = new ArrayList<>();
+
+        void applyTo(Map<UUID, Product> catalog) {
+            deleted.forEach(catalog::remove);
+            changed.forEach(p -> catalog.put(p.getId(), p));
+        }
+    }
+
+    // --------------------- Вспомогательное ----------------------
+
+    private static boolean sameCatalog(Map<UUID, Product> expected, List<Product> actual) {
+        if (expected.size() != actual.size()) {
+            return false;
+        }
+        for (Product p : actual) {
+            Product e = expected.get(p.getId());
+            if (e == null
+                    || !e.getName().equals(p.getName())
+                    || !e.getCategory().equals(p.getCategory())
+                    || !e.getBrand().equals(p.getBrand())
+                    || e.getPrice() != p.getPrice()
+                    || !e.getUpdatedAt().equals(p.getUpdatedAt())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Path segment(Path dir, String prefix, long seq) {
+        return dir.resolve(String.format("%s%016d.seg", prefix, seq));
+    }
+
+    private static boolean hasTempFile(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return false;
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.anyMatch(p -> p.getFileName().toString().endsWith(".tmp"));
+        }
+    }
+
+    private static void deleteTree(Path root) throws IOException {
+        try (Stream<Path> files = Files.walk(root)) {
+            List<Path> paths = files.sorted(Comparator.reverseOrder()).toList();
+            for (Path p : paths) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+
+    private static void flipByte(Path file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            long pos = raf.length() / 2;
+            raf.seek(pos);
+            int b = raf.read();
+            raf.seek(pos);
+            raf.write(b ^ 0x01);
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            failures++;
+            System.out.println("  FAIL " + message);
+        }
+    }
+
+    private static void report(String name, CheckpointProductRepository repo, int failuresBefore) {
+        System.out.printf("  %s %s: восстановление %.2f мс, seq #%d%n", failures == failuresBefore ? "ok  " : "FAIL",
+                name, repo.getLastRecoveryNanos() / 1_000_000.0, repo.getLastSeq());
+    }
+}
@@ -0,0 +1,359 @@
+package com.marketplace.search;
+
+import com.marketplace.model.Product;
+
+import java.util.*;
+
+/**
+ * Проверка префиксного дерева и индекса подсказок. Без JUnit - запускается через main:
+ * <pre>
+ *   javac -encoding UTF-8 -d out market/src/com/marketplace/**&#47;*.java market/test/com/marketplace/**&#47;*.java
+ *   java -cp out com.marketplace.search.TermTrieTest [товаров для замера, по умолчанию 1000000]
+ * </pre>
+ * Результаты дерева сравниваются с перебором по простой модели (Map значение -> id),
+ * в конце - замер задержки подсказок на большом каталоге. Код выхода 1, если хоть одна проверка не прошла.
+ */
+public class TermTrieTest {
+
+    private static final long SUGGEST_BUDGET_NANOS = 1_000_000; // 1 мс на подсказку
+    private static final String[] VALUES = {"apple", "apply", "app", "apex", "banana", "band", "bandana", "b", "cherry", "chery"};
+
+    private static int failures = 0;
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+
+        termIdTransitions();
+        displayKeepsOriginalCase();
+        randomMutationsAgainstModel();
+        renameInvalidatesCachedTop();
+        fuzzyMatchesBruteForce();
+        suggestLatency(n);
+
+        if (failures > 0) {
+            System.out.println("ПРОВАЛЕНО проверок: " + failures);
+            System.exit(1);
+        }
+        System.out.println("Все проверки пройдены");
+    }
+
+    // --------------------- Сценарии ----------------------
+
+    /**
+     * id одного значения проходят все формы хранения: одна ссылка, массив, HashSet - и обратно до удаления узла.
+     */
+    private static void termIdTransitions() {
+        int failuresBefore = failures;
+        String name = "id значения: ссылка -> массив -> HashSet -> удаление";
+        TermTrie trie = new TermTrie(Suggestion.Field.BRAND);
+        List<UUID> ids = new ArrayList<>();
+        Set<UUID> expected = new HashSet<>();
+        for (int i = 0; i < 20; i++) {
+            UUID id = new UUID(7, i);
+            ids.add(id);
+            expected.add(id);
+            trie.add("Acme", id);
+            trie.add("Acme", id); // повтор не должен менять число товаров
+            check(trie.ids("acme").equals(expected), name + ": после добавления #" + i);
+            check(count(trie, "acme") == expected.size(), name + ": число товаров после добавления #" + i);
+        }
+        // удаление из середины и с конца - в любой форме хранения
+        for (int i = 19; i >= 0; i -= 2) {
+            trie.remove("ACME", ids.get(i));
+            expected.remove(ids.get(i));
+        }
+        for (int i = 0; i < 20; i += 2) {
+            trie.remove("acme", ids.get(i));
+            expected.remove(ids.get(i));
+            check(trie.ids("acme").equals(expected), name + ": после удаления #" + i);
+            check(count(trie, "acme") == expected.size(), name + ": число товаров после удаления #" + i);
+        }
+        check(trie.prefix("a", 10).isEmpty(), name + ": пустой узел не удалён из дерева");
+        trie.remove("acme", ids.get(0)); // удаление отсутствующего - без ошибок
+        report(name, failuresBefore);
+    }
+
+    private static void displayKeepsOriginalCase() {
+        int failuresBefore = failures;
+        String name = "исходное написание и поиск без учёта регистра";
+        TermTrie trie = new TermTrie(Suggestion.Field.CATEGORY);
+        trie.add("  Smartphone ", new UUID(1, 1));
+        List<Suggestion> s = trie.prefix("SMART", 5);
+        check(s.size() == 1 && s.get(0).getText().equals("Smartphone"), name + ": ожидалось 'Smartphone', получено " + s);
+        check(trie.ids("smartphone").size() == 1, name + ": значение не найдено в нижнем регистре");
+        trie.add("", new UUID(1, 2));
+        trie.add(null, new UUID(1, 3));
+        check(trie.prefix("", 10).size() == 1, name + ": пустые значения не должны попадать в дерево");
+        report(name, failuresBefore);
+    }
+
+    /**
+     * Случайные добавления и удаления вперемешку с запросами: запросы заполняют кэш топа в узлах,
+     * поэтому любое пропущенное сбрасывание кэша даст устаревший ответ.
+     */
+    private static void randomMutationsAgainstModel() {
+        int failuresBefore = failures;
+        String name = "случайные изменения против модели";
+        TermTrie trie = new TermTrie(Suggestion.Field.NAME);
+        Map<String, Set<UUID>> model = new HashMap<>();
+        Random random = new Random(42);
+        UUID[] ids = new UUID[64];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = new UUID(9, i);
+        }
+
+        for (int step = 0; step < 20_000 && failures == failuresBefore; step++) {
+            String value = VALUES[random.nextInt(VALUES.length)];
+            // часть id общая - у популярных значений набирается больше ARRAY_LIMIT товаров
+            UUID id = ids[random.nextInt(random.nextBoolean() ? 4 : ids.length)];
+            if (random.nextInt(3) > 0) {
+                trie.add(value, id);
+                model.computeIfAbsent(value, v -> new HashSet<>()).add(id);
+            } else {
+                trie.remove(value, id);
+                Set<UUID> set = model.get(value);
+                if (set != null) {
+                    set.remove(id);
+                    if (set.isEmpty()) {
+                        model.remove(value);
+                    }
+                }
+            }
+
+            String source = VALUES[random.nextInt(VALUES.length)];
+            String prefix = source.substring(0, Math.min(source.length(), 1 + random.nextInt(2)));
+            int limit = random.nextBoolean() ? 3 : TermTrie.CACHED_TOP + 4;
+            List<String> expected = expectedTop(model, prefix, limit);
+            List<String> actual = new ArrayList<>();
+            for (Suggestion s : trie.prefix(prefix, limit)) {
+                actual.add(s.getText() + "=" + s.getProductCount());
+            }
+            check(actual.equals(expected), name + ": шаг " + step + ", префикс '" + prefix + "': " + actual + " вместо " + expected);
+            for (String v : VALUES) {
+                check(trie.ids(v).equals(model.getOrDefault(v, Collections.emptySet())),
+                        name + ": шаг " + step + ", id значения " + v);
+            }
+        }
+        report(name, failuresBefore);
+    }
+
+    /**
+     * Переименование товара через индекс: кэш топа по старому и новому префиксу должен обновиться.
+     */
+    private static void renameInvalidatesCachedTop() {
+        int failuresBefore = failures;
+        String name = "переименование сбрасывает кэш топа";
+        ProductSearchIndex index = new ProductSearchIndex();
+        List<Product> products = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Product p = new Product("Galaxy S" + i, "Smartphone", "Samsung", 100);
+            products.add(p);
+            index.add(p);
+        }
+        check(index.suggest("galaxy", 10).size() == 5, name + ": ожидалось 5 подсказок до переименования");
+        check(index.suggest("pixel", 10).isEmpty(), name + ": подсказок 'pixel' до переименования быть не должно");
+
+        Product renamed = products.get(0);
+        index.remove(renamed.getId(), renamed.getName(), renamed.getCategory(), renamed.getBrand());
+        renamed.setName("Pixel 9");
+        renamed.setBrand("Google");
+        index.add(renamed);
+
+        check(index.suggest("galaxy", 10).size() == 4, name + ": старое название осталось в подсказках");
+        List<Suggestion> pixel = index.suggest("pix", 10);
+        check(pixel.size() == 1 && pixel.get(0).getText().equals("Pixel 9"), name + ": новое название не появилось: " + pixel);
+        List<Suggestion> brands = index.suggest("sams", 10);
+        check(brands.size() == 1 && brands.get(0).getProductCount() == 4, name + ": число товаров бренда не обновилось: " + brands);
+        check(index.productIds(Suggestion.Field.BRAND, "google").equals(Set.of(renamed.getId())),
+                name + ": товар не найден по новому бренду");
+        report(name, failuresBefore);
+    }
+
+    /**
+     * Обход с отсечением по строке матрицы должен находить ровно те значения, что и полный перебор.
+     */
+    private static void fuzzyMatchesBruteForce() {
+        int failuresBefore = failures;
+        String name = "нечёткий поиск против перебора";
+        TermTrie trie = new TermTrie(Suggestion.Field.NAME);
+        Random random = new Random(7);
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            String v = randomWord(random, 3 + random.nextInt(8));
+            values.add(v);
+            trie.add(v, new UUID(3, i));
+        }
+        Set<String> distinct = new TreeSet<>(values);
+
+        for (int q = 0; q < 300; q++) {
+            String query = q % 2 == 0 ? mutate(values.get(random.nextInt(values.size())), random) : randomWord(random, 2 + random.nextInt(8));
+            for (int maxEdits = 0; maxEdits <= 2; maxEdits++) {
+                Map<String, Integer> expected = new TreeMap<>();
+                for (String v : distinct) {
+                    int d = levenshtein(query, v);
+                    if (d <= maxEdits) {
+                        expected.put(v, d);
+                    }
+                }
+                Map<String, Integer> actual = new TreeMap<>();
+                for (Suggestion s : trie.fuzzy(query, maxEdits, Integer.MAX_VALUE)) {
+                    actual.put(s.getText(), s.getDistance());
+                }
+                check(actual.equals(expected), name + ": '" + query + "' до " + maxEdits + " правок: " + actual + " вместо " + expected);
+            }
+        }
+        List<Suggestion> top = trie.fuzzy(mutate(values.get(0), random), 2, 3);
+        check(top.size() <= 3, name + ": limit не соблюдён");
+        for (int i = 1; i < top.size(); i++) {
+            check(top.get(i - 1).getDistance() <= top.get(i).getDistance(), name + ": результаты не отсортированы по расстоянию");
+        }
+        report(name, failuresBefore);
+    }
+
+    /**
+     * Подсказка по префиксу на n товарах, в том числе сразу после изменения (кэш на пути сброшен).
+     */
+    private static void suggestLatency(int n) {
+        String[] brands = {"Apple", "Samsung", "Lenovo", "Xiaomi", "Sony", "Asus", "Acer", "Huawei"};
+        String[] categories = {"Smartphone", "Laptop", "Tablet", "Headphones", "Monitor"};
+        String[] words = {"Pro", "Max", "Ultra", "Air", "Mini", "Plus", "Lite", "Note", "Galaxy", "iPhone", "ThinkPad", "Zen", "Book"};
+        String[] queries = {"ga", "galaxy p", "sam", "iph", "thinkpad z", "la", "zen", "a"};
+        Random random = new Random(1);
+
+        ProductSearchIndex index = new ProductSearchIndex();
+        List<Product> products = new ArrayList<>(n);
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            Product p = new Product(words[random.nextInt(words.length)] + " " + words[random.nextInt(words.length)] + " " + random.nextInt(5000),
+                    categories[random.nextInt(categories.length)], brands[random.nextInt(brands.length)], i);
+            products.add(p);
+            index.add(p);
+        }
+        System.out.printf("  Индекс на %d товаров построен за %.0f мс%n", n, (System.nanoTime() - start) / 1_000_000.0);
+
+        for (int i = 0; i < 20_000; i++) {
+            index.suggest(queries[i % queries.length], 10); // прогрев JIT
+        }
+        long[] suggest = new long[20_000];
+        for (int i = 0; i < suggest.length; i++) {
+            long t = System.nanoTime();
+            index.suggest(queries[i % queries.length], 10);
+            suggest[i] = System.nanoTime() - t;
+        }
+        long[] afterUpdate = new long[2_000];
+        for (int i = 0; i < afterUpdate.length; i++) {
+            Product p = products.get(random.nextInt(n));
+            index.remove(p);
+            p.setName("Galaxy Fold " + i);
+            index.add(p);
+            long t = System.nanoTime();
+            index.suggest("gal", 10);
+            afterUpdate[i] = System.nanoTime() - t;
+        }
+        long[] fuzzy = new long[200];
+        for (int i = 0; i < fuzzy.length; i++) {
+            long t = System.nanoTime();
+            index.fuzzy("samsnug", 2, 10);
+            fuzzy[i] = System.nanoTime() - t;
+        }
+
+        reportLatency("подсказка по префиксу", suggest);
+        reportLatency("подсказка сразу после изменения", afterUpdate);
+        reportLatency("нечёткая подсказка (до 2 правок)", fuzzy);
+        check(average(suggest) < SUGGEST_BUDGET_NANOS, "подсказка по префиксу в среднем дольше 1 мс на " + n + " товаров");
+        check(average(afterUpdate) < SUGGEST_BUDGET_NANOS, "подсказка после изменения в среднем дольше 1 мс на " + n + " товаров");
+    }
+
+    // --------------------- Модель ----------------------
+
+    private static List<String> expectedTop(Map<String, Set<UUID>> model, String prefix, int limit) {
+        List<Map.Entry<String, Set<UUID>>> matches = new ArrayList<>();
+        for (Map.Entry<String, Set<UUID>> e : model.entrySet()) {
+            if (e.getKey().startsWith(prefix)) {
+                matches.add(e);
+            }
+        }
+        matches.sort(Comparator.comparingInt((Map.Entry<String, Set<UUID>> e) -> -e.getValue().size())
+                .thenComparing(Map.Entry::getKey));
+        List<String> result = new ArrayList<>();
+        for (Map.Entry<String, Set<UUID>> e : matches.subList(0, Math.min(limit, matches.size()))) {
+            result.add(e.getKey() + "=" + e.getValue().size());
+        }
+        return result;
+    }
+
+    private static int count(TermTrie trie, String value) {
+        for (Suggestion s : trie.prefix(value, Integer.MAX_VALUE)) {
+            if (s.getText().equalsIgnoreCase(value)) {
+                return s.getProductCount();
+            }
+        }
+        return 0;
+    }
+
+    private static int levenshtein(String a, String b) {
+        int[] prev = new int[b.length() + 1];
+        int[] row = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            prev[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            row[0] = i;
+            for (int j = 1; j <= b.length(); j++) {
+                int replace = prev[j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1);
+                row[j] = Math.min(Math.min(row[j - 1] + 1, prev[j] + 1), replace);
+            }
+            int[] tmp = prev;
+            prev = row;
+            row = tmp;
+        }
+        return prev[b.length()];
+    }
+
+    // маленький алфавит - много близких значений, отсечение работает на общих префиксах
+    private static String randomWord(Random random, int length) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            sb.append((char) ('a' + random.nextInt(6)));
+        }
+        return sb.toString();
+    }
+
+    private static String mutate(String value, Random random) {
+        StringBuilder sb = new StringBuilder(value);
+        int edits = 1 + random.nextInt(3);
+        for (int i = 0; i < edits && sb.length() > 1; i++) {
+            int pos = random.nextInt(sb.length());
+            switch (random.nextInt(3)) {
+                case 0 -> sb.deleteCharAt(pos);
+                case 1 -> sb.insert(pos, (char) ('a' + random.nextInt(6)));
+                default -> sb.setCharAt(pos, (char) ('a' + random.nextInt(6)));
+            }
+        }
+        return sb.toString();
+    }
+
+    // --------------------- Вспомогательное ----------------------
+
+    private static double average(long[] nanos) {
+        return Arrays.stream(nanos).average().orElse(0);
+    }
+
+    private static void reportLatency(String name, long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        System.out.printf("  %s: в среднем %.1f мкс, p99 %.1f мкс, максимум %.1f мкс%n", name,
+                average(nanos) / 1000.0, sorted[(int) (sorted.length * 0.99)] / 1000.0, sorted[sorted.length - 1] / 1000.0);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            failures++;
+            System.out.println("  FAIL " + message);
+        }
+    }
+
+    private static void report(String name, int failuresBefore) {
+        System.out.println("  " + (failures == failuresBefore ? "ok  " : "FAIL") + " " + name);
+    }
+}